@@ -0,0 +1,92 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.sidnlabs.entrada.ServerContext;
+import nl.sidnlabs.entrada.enrich.AddressEnrichment;
+import nl.sidnlabs.entrada.enrich.resolver.DnsResolverCheck;
+import nl.sidnlabs.entrada.enrich.resolver.Quad9ResolverCheck;
+import nl.sidnlabs.entrada.enrich.resolver.ResolverEnrichment;
+import nl.sidnlabs.entrada.load.PacketJoiner;
+import nl.sidnlabs.entrada.load.stream.PacketJoinerImpl;
+import nl.sidnlabs.entrada.metric.HotPathMetrics;
+import nl.sidnlabs.entrada.model.DNSRowBuilder;
+import nl.sidnlabs.entrada.support.RowData;
+import nl.sidnlabs.pcap.packet.Packet;
+
+/**
+ * Create the components used by the benchmarks without a Spring context, config options that are
+ * normally injected by Spring are set using reflection.
+ */
+public class BenchmarkSupport {
+
+  public static final String SERVER = "bench";
+  public static final long SEED = 42;
+
+  private BenchmarkSupport() {}
+
+  public static ServerContext serverContext() {
+    ServerContext ctx = new ServerContext();
+    ctx.setServer(SERVER);
+    return ctx;
+  }
+
+  public static PacketJoiner joiner() {
+    PacketJoinerImpl joiner = new PacketJoinerImpl(new HotPathMetrics(new SimpleMeterRegistry()));
+    ReflectionTestUtils.setField(joiner, "cacheTimeoutConfig", Integer.valueOf(2));
+    ReflectionTestUtils.invokeMethod(joiner, "init");
+    return joiner;
+  }
+
+  /**
+   * Join the packets, the result can be used as input for the row builder.
+   */
+  public static List<RowData> join(List<Packet> packets) {
+    PacketJoiner joiner = joiner();
+    List<RowData> rows = new ArrayList<>();
+    for (Packet p : packets) {
+      rows.addAll(joiner.join(p));
+    }
+    rows.addAll(joiner.join(Packet.LAST));
+    return rows;
+  }
+
+  /**
+   * Create the Quad9 resolver check, this check uses a list of addresses from the classpath and
+   * does not need network access.
+   */
+  public static DnsResolverCheck resolverCheck(Path workDir) {
+    Quad9ResolverCheck check = new Quad9ResolverCheck();
+    check.setWorkDir(workDir.toString());
+    check.setMaxMatchCacheSize(10000);
+    check.init();
+    return check;
+  }
+
+  public static DNSRowBuilder rowBuilder(List<AddressEnrichment> enrichments) {
+    DNSRowBuilder builder = new DNSRowBuilder(enrichments, serverContext());
+    ReflectionTestUtils.setField(builder, "metricsEnabled", Boolean.TRUE);
+    return builder;
+  }
+
+  public static DNSRowBuilder rowBuilder(Path workDir) {
+    return rowBuilder(
+        Collections.singletonList(new ResolverEnrichment(List.of(resolverCheck(workDir)))));
+  }
+
+  public static Path tempDir() {
+    try {
+      return Files.createTempDirectory("entrada-bench");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
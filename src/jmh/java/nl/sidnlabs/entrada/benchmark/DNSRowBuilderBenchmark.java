@@ -0,0 +1,66 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import akka.japi.Pair;
+import nl.sidnlabs.entrada.model.BaseMetricValues;
+import nl.sidnlabs.entrada.model.DNSRowBuilder;
+import nl.sidnlabs.entrada.support.RowData;
+import nl.sidnlabs.entrada.support.SyntheticPcap;
+
+/**
+ * Build rows from joined synthetic query/response pairs, with and without enrichment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DNSRowBuilderBenchmark {
+
+  @Param({"false", "true"})
+  private boolean enrich;
+
+  private Path workDir;
+  private DNSRowBuilder builder;
+  private List<RowData> rows;
+  private int index;
+
+  @Setup
+  public void setup() {
+    workDir = BenchmarkSupport.tempDir();
+    rows = BenchmarkSupport
+        .join(SyntheticPcap.read(SyntheticPcap.create(10_000, 10_000, BenchmarkSupport.SEED)));
+    builder = enrich ? BenchmarkSupport.rowBuilder(workDir)
+        : BenchmarkSupport.rowBuilder(Collections.emptyList());
+  }
+
+  @TearDown
+  public void teardown() {
+    FileUtils.deleteQuietly(workDir.toFile());
+  }
+
+  @Benchmark
+  public Pair<GenericRecord, BaseMetricValues> build() {
+    if (index == rows.size()) {
+      index = 0;
+    }
+    return builder.build(rows.get(index++), BenchmarkSupport.SERVER);
+  }
+
+}
@@ -0,0 +1,94 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.common.net.InetAddresses;
+import nl.sidnlabs.entrada.ServerContext;
+import nl.sidnlabs.entrada.enrich.AddressEnrichment;
+import nl.sidnlabs.entrada.enrich.resolver.ResolverEnrichment;
+import nl.sidnlabs.entrada.model.DNSRowBuilder;
+
+/**
+ * Enrich a row with the address enrichments. With a small number of client addresses most lookups
+ * are served by the enrichment cache of the row builder, with many addresses most lookups miss the
+ * cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class EnrichBenchmark {
+
+  @Param({"1000", "1000000"})
+  private int addresses;
+
+  private Path workDir;
+  private EnrichingRowBuilder builder;
+  private Schema schema;
+  private String[] names;
+  private InetAddress[] inetAddresses;
+  private int index;
+
+  @Setup
+  public void setup() {
+    workDir = BenchmarkSupport.tempDir();
+    builder = new EnrichingRowBuilder(
+        List.of(new ResolverEnrichment(List.of(BenchmarkSupport.resolverCheck(workDir)))),
+        BenchmarkSupport.serverContext());
+    schema = builder.schema("/avro/dns-query.avsc");
+
+    Random r = new Random(BenchmarkSupport.SEED);
+    names = new String[addresses];
+    inetAddresses = new InetAddress[addresses];
+    for (int i = 0; i < addresses; i++) {
+      inetAddresses[i] = InetAddresses.fromInteger(r.nextInt());
+      names[i] = inetAddresses[i].getHostAddress();
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    FileUtils.deleteQuietly(workDir.toFile());
+  }
+
+  @Benchmark
+  public GenericRecord enrich() {
+    if (index == addresses) {
+      index = 0;
+    }
+    GenericRecord record = new GenericData.Record(schema);
+    builder.enrich(names[index], inetAddresses[index++], record);
+    return record;
+  }
+
+  private static class EnrichingRowBuilder extends DNSRowBuilder {
+
+    private EnrichingRowBuilder(List<AddressEnrichment> enrichments, ServerContext serverCtx) {
+      super(enrichments, serverCtx);
+    }
+
+    private boolean enrich(String address, InetAddress inetAddress, GenericRecord record) {
+      return enrich(address, inetAddress, "", record, false);
+    }
+  }
+
+}
@@ -0,0 +1,58 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import nl.sidnlabs.entrada.metric.HistoricalMetricManager;
+import nl.sidnlabs.entrada.model.BaseMetricValues;
+import nl.sidnlabs.entrada.model.DNSRowBuilder;
+import nl.sidnlabs.entrada.support.SyntheticPcap;
+
+/**
+ * Update the historical metrics with the metric values created by the row builder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MetricManagerBenchmark {
+
+  private HistoricalMetricManager metricManager;
+  private List<BaseMetricValues> values;
+  private int index;
+
+  @Setup
+  public void setup() {
+    DNSRowBuilder builder = BenchmarkSupport.rowBuilder(Collections.emptyList());
+    values = BenchmarkSupport
+        .join(SyntheticPcap.read(SyntheticPcap.create(10_000, 10_000, BenchmarkSupport.SEED)))
+        .stream()
+        .map(rd -> builder.build(rd, BenchmarkSupport.SERVER).second())
+        .collect(Collectors.toList());
+
+    // only update is used, no sender needed
+    metricManager = new HistoricalMetricManager(BenchmarkSupport.serverContext(), null);
+    metricManager.setMetricsEnabled(true);
+    metricManager.setRetention(60);
+  }
+
+  @Benchmark
+  public void update() {
+    if (index == values.size()) {
+      index = 0;
+    }
+    metricManager.update(values.get(index++));
+  }
+
+}
@@ -0,0 +1,62 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import nl.sidnlabs.entrada.load.PacketJoiner;
+import nl.sidnlabs.entrada.support.SyntheticPcap;
+import nl.sidnlabs.pcap.packet.Packet;
+
+/**
+ * Join synthetic query/response packets. The joiner clears the joined packets, so new packets are
+ * decoded before each invocation and each invocation joins all packets of the synthetic pcap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PacketJoinerBenchmark {
+
+  private static final int PAIRS = 10_000;
+
+  @Param({"100", "10000"})
+  private int clients;
+
+  private byte[] pcap;
+  private List<Packet> packets;
+  private PacketJoiner joiner;
+
+  @Setup(Level.Trial)
+  public void createPcap() {
+    pcap = SyntheticPcap.create(PAIRS, clients, BenchmarkSupport.SEED);
+  }
+
+  @Setup(Level.Invocation)
+  public void decode() {
+    packets = SyntheticPcap.read(pcap);
+    joiner = BenchmarkSupport.joiner();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(2 * PAIRS)
+  public void join(Blackhole bh) {
+    for (Packet p : packets) {
+      bh.consume(joiner.join(p));
+    }
+    bh.consume(joiner.join(Packet.LAST));
+  }
+
+}
@@ -0,0 +1,92 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import nl.sidnlabs.entrada.model.DNSRowBuilder;
+import nl.sidnlabs.entrada.model.Partition;
+import nl.sidnlabs.entrada.parquet.ParquetPartitionWriter;
+import nl.sidnlabs.entrada.support.SyntheticPcap;
+
+/**
+ * Write rows to Parquet, using AvroWriteSupport or GenericRecordWriteSupport. The files are deleted
+ * after each iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ParquetWriterBenchmark {
+
+  private static final int MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+  @Param({"false", "true"})
+  private boolean fastWrite;
+
+  private Path workDir;
+  private Schema schema;
+  private List<GenericRecord> records;
+  private Partition partition;
+  private ParquetPartitionWriter writer;
+  private int index;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    DNSRowBuilder builder = BenchmarkSupport.rowBuilder(Collections.emptyList());
+    schema = builder.schema("/avro/dns-query.avsc");
+    records = BenchmarkSupport
+        .join(SyntheticPcap.read(SyntheticPcap.create(10_000, 10_000, BenchmarkSupport.SEED)))
+        .stream()
+        .map(rd -> builder.build(rd, BenchmarkSupport.SERVER).first())
+        .collect(Collectors.toList());
+
+    partition = Partition
+        .builder()
+        .year(2020)
+        .month(9)
+        .day(13)
+        .server(BenchmarkSupport.SERVER)
+        .dns(true)
+        .build();
+  }
+
+  @Setup(Level.Iteration)
+  public void open() {
+    workDir = BenchmarkSupport.tempDir();
+    writer = new ParquetPartitionWriter(workDir.toString(), MAX_FILE_SIZE, MAX_FILE_SIZE, 20000,
+        fastWrite);
+  }
+
+  @TearDown(Level.Iteration)
+  public void close() {
+    writer.close();
+    FileUtils.deleteQuietly(workDir.toFile());
+  }
+
+  @Benchmark
+  public boolean write() {
+    if (index == records.size()) {
+      index = 0;
+    }
+    return writer.write(records.get(index++), schema, partition);
+  }
+
+}
@@ -0,0 +1,185 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import nl.sidnlabs.entrada.Application;
+import nl.sidnlabs.entrada.load.StreamStageMetrics;
+import nl.sidnlabs.entrada.metric.HotPathMetrics.Meter;
+import nl.sidnlabs.entrada.support.SyntheticPcap;
+
+/**
+ * Replay pcap files through the complete application using the local engine, and report the
+ * throughput. The input is either a list of pcap files or a generated pcap file. All data is written
+ * to a temporary directory that is deleted when done.
+ *
+ * Options (system properties):
+ * <ul>
+ * <li>replay.files: comma separated list of pcap files to replay</li>
+ * <li>replay.pairs: number of query/response pairs to generate when no files are used (1000000)</li>
+ * <li>replay.clients: number of client addresses for the generated pcap (100000)</li>
+ * </ul>
+ *
+ * All ENTRADA config options can be set as system property, e.g. -Dentrada.row.decoder.count=4.
+ * The Maxmind license/databases must be configured the same as for a normal run.
+ *
+ * Run using the jmh profile, the options are passed to the JVM using jmh.jvmArgs:
+ *
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.main=nl.sidnlabs.entrada.benchmark.ReplayBenchmark
+ *   -Djmh.jvmArgs="-Dreplay.pairs=1000000 -Dentrada.row.decoder.count=4"
+ * </pre>
+ */
+public class ReplayBenchmark {
+
+  private static final long WAIT_MS = 100;
+
+  private ReplayBenchmark() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path base = Files.createTempDirectory("entrada-replay");
+    try {
+      run(base);
+    } finally {
+      FileUtils.deleteQuietly(base.toFile());
+    }
+  }
+
+  private static void run(Path base) throws IOException, InterruptedException {
+    Path input = Files.createDirectories(base.resolve("input").resolve(BenchmarkSupport.SERVER));
+    long bytes = createInput(input);
+
+    Map<String, Object> props = new HashMap<>();
+    props.put("entrada.location.work", base.resolve("work").toString());
+    props.put("entrada.location.input", base.resolve("input").toString());
+    props.put("entrada.location.output", base.resolve("output").toString());
+    props.put("entrada.location.archive", base.resolve("archive").toString());
+    props.put("entrada.engine", "local");
+    props.put("entrada.nameservers", BenchmarkSupport.SERVER);
+    props.put("entrada.pcap.archive.mode", "delete");
+    props.put("entrada.parquet.compaction.enabled", "false");
+    props.put("entrada.stream.stage.timing", "true");
+    props.put("entrada.stream.stage.queue", "true");
+    // only process the input once
+    props.put("entrada.execution.delay", "86400");
+
+    long gcTime = gcTime();
+    long gcCount = gcCount();
+
+    // system properties have precedence over the default properties set here
+    try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(Application.class)
+        .web(WebApplicationType.NONE)
+        .properties(props)
+        .run()) {
+
+      MeterRegistry registry = ctx.getBean(MeterRegistry.class);
+      // wait until the scheduled execution has processed the input
+      Timer processTimer = registry.timer("processor.execution.time");
+      while (processTimer.count() == 0) {
+        Thread.sleep(WAIT_MS);
+      }
+
+      report(registry, processTimer.totalTime(TimeUnit.MILLISECONDS), bytes,
+          gcTime() - gcTime, gcCount() - gcCount);
+    }
+  }
+
+  private static long createInput(Path input) throws IOException {
+    String files = System.getProperty("replay.files");
+    if (StringUtils.isNotBlank(files)) {
+      long bytes = 0;
+      for (String file : StringUtils.split(files, ",")) {
+        Path src = Paths.get(StringUtils.trim(file));
+        Files.copy(src, input.resolve(src.getFileName()));
+        bytes += Files.size(src);
+      }
+      return bytes;
+    }
+
+    int pairs = Integer.getInteger("replay.pairs", 1_000_000).intValue();
+    int clients = Integer.getInteger("replay.clients", 100_000).intValue();
+    Path file = input.resolve("synthetic.pcap");
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+      SyntheticPcap.write(out, pairs, clients, BenchmarkSupport.SEED);
+    }
+    return Files.size(file);
+  }
+
+  private static void report(MeterRegistry registry, double millis, long bytes, long gcTime,
+      long gcCount) {
+    double secs = millis / 1000;
+    double packets = count(registry, Meter.PCAP_PACKETS);
+    double rows = count(registry, Meter.DNS_ROWS) + count(registry, Meter.ICMP_ROWS);
+
+    System.out.println("------------------ Replay Benchmark ----------------------");
+    System.out.printf("Time (ms): %.0f%n", Double.valueOf(millis));
+    System.out.printf("Packets: %.0f (%.0f/s)%n", Double.valueOf(packets),
+        Double.valueOf(packets / secs));
+    System.out.printf("Rows: %.0f (%.0f/s)%n", Double.valueOf(rows), Double.valueOf(rows / secs));
+    System.out.printf("Bytes: %d (%.2f MB/s)%n", Long.valueOf(bytes),
+        Double.valueOf(bytes / secs / (1024 * 1024)));
+    System.out.printf("GC time (ms): %d (%d collections, including startup)%n",
+        Long.valueOf(gcTime), Long.valueOf(gcCount));
+
+    System.out.println("Stage latency (time per element) and full buffer count:");
+    for (Timer t : registry.find(StreamStageMetrics.METRIC_STAGE_TIME).timers()) {
+      String stage = t.getId().getTag("stage");
+      String instance = t.getId().getTag("instance");
+      Counter full = registry
+          .find(StreamStageMetrics.METRIC_STAGE_BACKPRESSURE)
+          .tags("stage", stage, "instance", instance)
+          .counter();
+
+      System.out.printf("  %-20s count: %d mean: %.1f us max: %.1f us total: %.0f ms full: %.0f%n",
+          stage + "-" + instance, Long.valueOf(t.count()),
+          Double.valueOf(t.mean(TimeUnit.MICROSECONDS)),
+          Double.valueOf(t.max(TimeUnit.MICROSECONDS)),
+          Double.valueOf(t.totalTime(TimeUnit.MILLISECONDS)),
+          Double.valueOf(full != null ? full.count() : 0));
+    }
+    System.out.println("----------------------------------------------------------");
+  }
+
+  private static double count(MeterRegistry registry, Meter meter) {
+    return registry
+        .find(meter.getName())
+        .functionCounters()
+        .stream()
+        .mapToDouble(FunctionCounter::count)
+        .sum();
+  }
+
+  private static long gcTime() {
+    return ManagementFactory
+        .getGarbageCollectorMXBeans()
+        .stream()
+        .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+        .sum();
+  }
+
+  private static long gcCount() {
+    return ManagementFactory
+        .getGarbageCollectorMXBeans()
+        .stream()
+        .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+        .sum();
+  }
+
+}
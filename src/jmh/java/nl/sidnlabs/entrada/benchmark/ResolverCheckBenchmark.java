@@ -0,0 +1,78 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import nl.sidnlabs.entrada.enrich.resolver.DnsResolverCheck;
+import nl.sidnlabs.entrada.enrich.resolver.ResolverEnrichment;
+
+/**
+ * Match random IPv4 or IPv6 addresses against the subnets of a public resolver, using the check
+ * of the resolver and using the enrichment that combines the prefixes of all checks in one trie.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ResolverCheckBenchmark {
+
+  private static final int ADDRESSES = 4096;
+
+  @Param({"4", "6"})
+  private int version;
+
+  private Path workDir;
+  private DnsResolverCheck check;
+  private ResolverEnrichment enrichment;
+  private String[] names = new String[ADDRESSES];
+  private InetAddress[] inetAddresses = new InetAddress[ADDRESSES];
+  private int index;
+
+  @Setup
+  public void setup() throws Exception {
+    workDir = BenchmarkSupport.tempDir();
+    check = BenchmarkSupport.resolverCheck(workDir);
+    enrichment = new ResolverEnrichment(List.of(check));
+
+    Random r = new Random(BenchmarkSupport.SEED);
+    for (int i = 0; i < ADDRESSES; i++) {
+      byte[] addr = new byte[version == 4 ? 4 : 16];
+      r.nextBytes(addr);
+      inetAddresses[i] = InetAddress.getByAddress(addr);
+      names[i] = inetAddresses[i].getHostAddress();
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    FileUtils.deleteQuietly(workDir.toFile());
+  }
+
+  @Benchmark
+  public boolean match() {
+    int i = index++ & (ADDRESSES - 1);
+    return check.match(names[i], inetAddresses[i]);
+  }
+
+  @Benchmark
+  public String enrichment() {
+    int i = index++ & (ADDRESSES - 1);
+    return enrichment.match(names[i], inetAddresses[i]);
+  }
+
+}
@@ -0,0 +1,140 @@
+package nl.sidnlabs.entrada.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.avro.AvroWriteSupport;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import nl.sidnlabs.entrada.model.DNSRowBuilder;
+import nl.sidnlabs.entrada.parquet.GenericRecordWriteSupport;
+import nl.sidnlabs.entrada.support.SyntheticPcap;
+
+/**
+ * Convert rows to Parquet record events using AvroWriteSupport or GenericRecordWriteSupport,
+ * without column encoding, compression and IO. This is the part of the write path that is changed
+ * by entrada.parquet.writer.fast, the end to end difference is measured by ParquetWriterBenchmark.
+ * Run with "-prof gc" to compare the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class WriteSupportBenchmark {
+
+  @Param({"false", "true"})
+  private boolean fastWrite;
+
+  private List<GenericRecord> records;
+  private WriteSupport<GenericRecord> writeSupport;
+  private final BlackholeConsumer consumer = new BlackholeConsumer();
+  private int index;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    DNSRowBuilder builder = BenchmarkSupport.rowBuilder(Collections.emptyList());
+    Schema schema = builder.schema("/avro/dns-query.avsc");
+    records = BenchmarkSupport
+        .join(SyntheticPcap.read(SyntheticPcap.create(10_000, 10_000, BenchmarkSupport.SEED)))
+        .stream()
+        .map(rd -> builder.build(rd, BenchmarkSupport.SERVER).first())
+        .collect(Collectors.toList());
+
+    if (fastWrite) {
+      writeSupport = new GenericRecordWriteSupport(schema);
+      writeSupport.init(new Configuration());
+    } else {
+      writeSupport = new AvroWriteSupport<>(
+          new AvroSchemaConverter(new Configuration()).convert(schema), schema, GenericData.get());
+    }
+    writeSupport.prepareForWrite(consumer);
+  }
+
+  @Benchmark
+  public void write(Blackhole bh) {
+    consumer.bh = bh;
+    if (index == records.size()) {
+      index = 0;
+    }
+    writeSupport.write(records.get(index++));
+  }
+
+  /**
+   * Consume the record events without encoding the values
+   */
+  private static class BlackholeConsumer extends RecordConsumer {
+
+    private Blackhole bh;
+
+    @Override
+    public void startMessage() {}
+
+    @Override
+    public void endMessage() {}
+
+    @Override
+    public void startField(String field, int index) {
+      bh.consume(index);
+    }
+
+    @Override
+    public void endField(String field, int index) {}
+
+    @Override
+    public void startGroup() {}
+
+    @Override
+    public void endGroup() {}
+
+    @Override
+    public void addInteger(int value) {
+      bh.consume(value);
+    }
+
+    @Override
+    public void addLong(long value) {
+      bh.consume(value);
+    }
+
+    @Override
+    public void addBoolean(boolean value) {
+      bh.consume(value);
+    }
+
+    @Override
+    public void addBinary(Binary value) {
+      bh.consume(value);
+    }
+
+    @Override
+    public void addFloat(float value) {
+      bh.consume(value);
+    }
+
+    @Override
+    public void addDouble(double value) {
+      bh.consume(value);
+    }
+  }
+
+}
@@ -1,17 +1,23 @@
 package nl.sidnlabs.entrada;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import lombok.extern.log4j.Log4j2;
-import nl.sidnlabs.entrada.enrich.geoip.GeoIPService;
+import nl.sidnlabs.entrada.config.ServerScope;
 import nl.sidnlabs.entrada.file.FileManager;
 import nl.sidnlabs.entrada.load.PacketProcessor;
 
@@ -19,7 +25,6 @@ import nl.sidnlabs.entrada.load.PacketProcessor;
 @Component
 public class ScheduledExecution {
 
-  private ServerContext serverCtx;
   private ApplicationContext ctx;
   private SharedContext sharedContext;
   private List<FileManager> fileManagers;
@@ -27,15 +32,18 @@ public class ScheduledExecution {
   @Value("${entrada.nameservers}")
   private String servers;
 
-  @Autowired
-  private GeoIPService geoIPService;
+  // max number of name servers to process at the same time
+  @Value("${entrada.nameservers.parallel:1}")
+  private int parallelServers;
+
+  @Value("${entrada.stream.persistent:false}")
+  private boolean persistent;
 
   private Timer processTimer;
 
-  public ScheduledExecution(ServerContext serverCtx, ApplicationContext ctx, MeterRegistry registry,
+  public ScheduledExecution(ApplicationContext ctx, MeterRegistry registry,
       SharedContext sharedContext, List<FileManager> fileManagers) {
 
-    this.serverCtx = serverCtx;
     this.ctx = ctx;
     this.sharedContext = sharedContext;
     this.fileManagers = fileManagers;
@@ -53,9 +61,7 @@ public class ScheduledExecution {
 
     sharedContext.setExecutionStatus(true);
 
-    log.info("Checking if maxmind DB is up to date");
-    // make sure the database are only downloaded once when using multiple geoip lookup instances
-    geoIPService.initialize();
+    // the maxmind databases are refreshed in the background by GeoIPServiceImpl
     log.info("Start loading data for: {}", servers);
 
     // create new processor each time, to avoid caches getting too big or having
@@ -63,12 +69,19 @@ public class ScheduledExecution {
 
     if (StringUtils.isBlank(servers)) {
       // no individual servers configured, assume the pcap data is in the input location root dir
-      runForServer("", ctx.getBean(PacketProcessor.class));
+      runForServer("");
+    } else if (persistent) {
+      // a persistent stream only returns when processing is stopped, every server needs its own
+      // thread otherwise the servers after the first one are never processed
+      List<String> serverList = Arrays.asList(StringUtils.split(servers, ","));
+      runParallel(serverList, serverList.size());
+    } else if (parallelServers > 1) {
+      // individual servers configured, process multiple server directories at the same time
+      List<String> serverList = Arrays.asList(StringUtils.split(servers, ","));
+      runParallel(serverList, Math.min(parallelServers, serverList.size()));
     } else {
       // individual servers configured, process each server directory
-      Arrays
-          .stream(StringUtils.split(servers, ","))
-          .forEach(s -> runForServer(s, ctx.getBean(PacketProcessor.class)));
+      Arrays.stream(StringUtils.split(servers, ",")).forEach(this::runForServer);
     }
 
     // cleanup filesystems, make sure all cached data and locked files are cleanup up
@@ -79,7 +92,30 @@ public class ScheduledExecution {
     log.info("Completed loading name server data");
   }
 
-  private void runForServer(String server, PacketProcessor processor) {
+  private void runParallel(List<String> serverList, int threads) {
+    ExecutorService executor = Executors
+        .newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("entrada-server-%d").build());
+
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      serverList.stream().forEach(s -> futures.add(executor.submit(() -> runForServer(s))));
+
+      // wait until all servers are done
+      for (Future<?> f : futures) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      log.error("Interrupted while waiting for name servers to complete", e);
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.error("Error while processing name servers", e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void runForServer(String server) {
     log.info("Start loading data for: {}", server);
 
     if (!sharedContext.isEnabled()) {
@@ -88,13 +124,22 @@ public class ScheduledExecution {
       return;
     }
 
-    serverCtx.setServer(server);
-
+    // each server has its own context and state, bind the current thread to the server
+    ServerScope.activate(server);
     try {
+      ctx.getBean(ServerContext.class).setServer(server);
+      PacketProcessor processor = ctx.getBean(PacketProcessor.class);
       // record time spent while processing all pcap files
       processTimer.record(processor::execute);
     } catch (Exception e) {
       log.error("Error while processing pcap data for: {}", server, e);
+    } finally {
+      // release the caches, threads and file handles of the server, the state is saved to disk
+      // and loaded again by the next run
+      ((ServerScope) ((ConfigurableApplicationContext) ctx)
+          .getBeanFactory()
+          .getRegisteredScope(ServerScope.NAME)).destroy(server);
+      ServerScope.deactivate();
     }
 
     log.info("Completed loading data for: {}", server);
@@ -20,11 +20,14 @@
 package nl.sidnlabs.entrada;
 
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import lombok.Data;
+import nl.sidnlabs.entrada.config.ServerScope;
 
 @Data
 @Component
+@Scope(ServerScope.NAME)
 public class ServerContext {
 
   private static final String DEFAULT_SERVER_NAME = "default";
@@ -0,0 +1,107 @@
+package nl.sidnlabs.entrada.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.Scope;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Scope for beans that hold the state of a single name server, e.g. ServerContext and
+ * StateManager. Every name server gets its own instance of these beans, making it possible to
+ * process multiple name servers at the same time. The name server is bound to the current thread
+ * using {@link #activate(String)}, the instances are destroyed using {@link #destroy(String)} when
+ * the run for the name server has ended. State that must survive a run is saved to disk.
+ */
+@Log4j2
+public class ServerScope implements Scope {
+
+  public static final String NAME = "server";
+
+  private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+  private final Map<String, Map<String, Object>> beans = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Runnable>> callbacks = new ConcurrentHashMap<>();
+
+  /**
+   * Bind the scope of the current thread to the name server
+   * 
+   * @param server name of the server
+   */
+  public static void activate(String server) {
+    CURRENT.set(server);
+  }
+
+  public static void deactivate() {
+    CURRENT.remove();
+  }
+
+  private static String current() {
+    String server = CURRENT.get();
+    if (server == null) {
+      throw new IllegalStateException("No name server active for current thread");
+    }
+    return server;
+  }
+
+  @Override
+  public Object get(String name, ObjectFactory<?> objectFactory) {
+    Map<String, Object> serverBeans =
+        beans.computeIfAbsent(current(), k -> new ConcurrentHashMap<>());
+
+    Object bean = serverBeans.get(name);
+    if (bean == null) {
+      // do not use computeIfAbsent, creating a bean may create other beans in this scope
+      bean = objectFactory.getObject();
+      serverBeans.put(name, bean);
+    }
+    return bean;
+  }
+
+  @Override
+  public Object remove(String name) {
+    Map<String, Runnable> serverCallbacks = callbacks.get(current());
+    if (serverCallbacks != null) {
+      serverCallbacks.remove(name);
+    }
+    Map<String, Object> serverBeans = beans.get(current());
+    return serverBeans != null ? serverBeans.remove(name) : null;
+  }
+
+  @Override
+  public void registerDestructionCallback(String name, Runnable callback) {
+    callbacks.computeIfAbsent(current(), k -> new ConcurrentHashMap<>()).put(name, callback);
+  }
+
+  /**
+   * Destroy all beans of the name server, the next run for the name server gets new instances.
+   * 
+   * @param server name of the server
+   */
+  public void destroy(String server) {
+    beans.remove(server);
+    Map<String, Runnable> serverCallbacks = callbacks.remove(server);
+    if (serverCallbacks == null) {
+      return;
+    }
+
+    for (Map.Entry<String, Runnable> callback : serverCallbacks.entrySet()) {
+      try {
+        callback.getValue().run();
+      } catch (Exception e) {
+        log.error("Error while destroying bean {} for: {}", callback.getKey(), server, e);
+      }
+    }
+  }
+
+  @Override
+  public Object resolveContextualObject(String key) {
+    return null;
+  }
+
+  @Override
+  public String getConversationId() {
+    return CURRENT.get();
+  }
+
+}
@@ -0,0 +1,22 @@
+package nl.sidnlabs.entrada.config;
+
+import org.springframework.beans.factory.config.CustomScopeConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ServerScopeConfig {
+
+  /**
+   * Register the scope for beans that must have an instance for each name server.
+   * 
+   * @return configurer registering {@link ServerScope}
+   */
+  @Bean
+  public static CustomScopeConfigurer serverScopeConfigurer() {
+    CustomScopeConfigurer configurer = new CustomScopeConfigurer();
+    configurer.addScope(ServerScope.NAME, new ServerScope());
+    return configurer;
+  }
+
+}
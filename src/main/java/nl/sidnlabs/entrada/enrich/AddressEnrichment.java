@@ -1,6 +1,7 @@
 package nl.sidnlabs.entrada.enrich;
 
 import java.net.InetAddress;
+import java.util.function.BiConsumer;
 
 public interface AddressEnrichment {
 
@@ -8,4 +9,15 @@ public interface AddressEnrichment {
 
   String getColumn();
 
+  /**
+   * Lookup the address and pass every value found to the consumer as column name and value.
+   * Enrichments that find the values for multiple columns using a single lookup override this.
+   */
+  default void match(String address, InetAddress inetAddress, BiConsumer<String, String> values) {
+    String value = match(address, inetAddress);
+    if (value != null) {
+      values.accept(getColumn(), value);
+    }
+  }
+
 }
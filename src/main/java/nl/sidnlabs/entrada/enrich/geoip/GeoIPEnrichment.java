@@ -0,0 +1,54 @@
+package nl.sidnlabs.entrada.enrich.geoip;
+
+import java.net.InetAddress;
+import java.util.function.BiConsumer;
+import org.springframework.stereotype.Component;
+import nl.sidnlabs.entrada.enrich.AddressEnrichment;
+
+/**
+ * Adds country, ASN and ASN organisation columns using a single GeoIP lookup per address
+ */
+@Component
+public class GeoIPEnrichment implements AddressEnrichment {
+
+  public static final String COLUMN_COUNTRY = "country";
+  public static final String COLUMN_ASN = "asn";
+  public static final String COLUMN_ASN_ORGANISATION = "asn_organisation";
+
+  private GeoIPService geoLookup;
+
+  public GeoIPEnrichment(GeoIPService geoLookup) {
+    this.geoLookup = geoLookup;
+  }
+
+  /**
+   * Lookup country for IP address
+   * 
+   * @param address IP address to perform lookup with
+   * @return country ISO code, null if not found
+   */
+  @Override
+  public String match(String address, InetAddress inetAddress) {
+    return geoLookup.lookup(inetAddress).getCountry();
+  }
+
+  @Override
+  public void match(String address, InetAddress inetAddress, BiConsumer<String, String> values) {
+    GeoIPInfo info = geoLookup.lookup(inetAddress);
+    if (info.getCountry() != null) {
+      values.accept(COLUMN_COUNTRY, info.getCountry());
+    }
+    if (info.getAsn() != null) {
+      values.accept(COLUMN_ASN, info.getAsn());
+    }
+    if (info.getOrganisation() != null) {
+      values.accept(COLUMN_ASN_ORGANISATION, info.getOrganisation());
+    }
+  }
+
+  @Override
+  public String getColumn() {
+    return COLUMN_COUNTRY;
+  }
+
+}
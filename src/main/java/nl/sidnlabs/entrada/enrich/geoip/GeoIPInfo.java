@@ -0,0 +1,17 @@
+package nl.sidnlabs.entrada.enrich.geoip;
+
+import lombok.Value;
+
+/**
+ * Result of a GeoIP lookup, fields are null when not found
+ */
+@Value
+public class GeoIPInfo {
+
+  public static final GeoIPInfo EMPTY = new GeoIPInfo(null, null, null);
+
+  private String country;
+  private String asn;
+  private String organisation;
+
+}
@@ -1,17 +1,18 @@
 package nl.sidnlabs.entrada.enrich.geoip;
 
 import java.net.InetAddress;
-import java.util.Optional;
-import com.maxmind.geoip2.model.AsnResponse;
-import com.maxmind.geoip2.model.CountryResponse;
 
 
 public interface GeoIPService {
 
   void initialize();
 
-  Optional<CountryResponse> lookupCountry(InetAddress addr);
-
-  Optional<? extends AsnResponse> lookupASN(InetAddress ip);
+  /**
+   * Lookup country, ASN and ASN organisation for the address
+   * 
+   * @param addr IP address to perform lookup with
+   * @return lookup result, {@link GeoIPInfo#EMPTY} if nothing found
+   */
+  GeoIPInfo lookup(InetAddress addr);
 
 }
@@ -27,8 +27,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Date;
+import java.util.Objects;
 import java.util.Optional;
 
 import javax.annotation.PostConstruct;
@@ -46,13 +50,14 @@ import org.apache.http.client.utils.DateUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import com.maxmind.db.CHMCache;
+import com.maxmind.db.MaxMindDbConstructor;
+import com.maxmind.db.MaxMindDbParameter;
+import com.maxmind.db.Reader;
 import com.maxmind.db.Reader.FileMode;
-import com.maxmind.geoip2.DatabaseReader;
-import com.maxmind.geoip2.model.AsnResponse;
-import com.maxmind.geoip2.model.CountryResponse;
 
 import lombok.extern.log4j.Log4j2;
 import nl.sidnlabs.entrada.util.DownloadUtil;
@@ -94,14 +99,21 @@ public class GeoIPServiceImpl implements GeoIPService {
   @Value("${geoip.maxmind.location}")
   private String location;
 
-  private DatabaseReader geoReader;
-  private DatabaseReader asnReader;
+  // use memory mapped files instead of loading the databases on the heap, the page cache is then
+  // shared by all instances running on the same host
+  @Value("${geoip.maxmind.mmap:false}")
+  private boolean mmap;
+
+  private volatile Databases databases;
 
   private boolean usePaidVersion;
-  private boolean geoDbInitialised;
 
+  /**
+   * Download the databases when required and load them, this blocks until the databases are
+   * available. Updates after startup are done in the background by {@link #refresh()}.
+   */
   @PostConstruct
-  public void initialize() {
+  public synchronized void initialize() {
 
     log.info("Using Maxmind database location: {}", location);
     if (StringUtils.isBlank(licenseKeyFree) && StringUtils.isBlank(licenseKeyPaid)) {
@@ -116,50 +128,72 @@ public class GeoIPServiceImpl implements GeoIPService {
       loc.mkdirs();
     }
 
-    String countryFile = countryFile();
-    String asnFile = asnFile();
-    
+    if (update() || databases == null) {
+      load();
+    }
+  }
+
+  /**
+   * Check for new database versions, new readers are created on the scheduler thread and swapped
+   * in when ready. Lookups keep using the current readers until then.
+   */
+  @Scheduled(fixedDelayString = "#{${geoip.maxmind.refresh.interval:60}*60*1000}",
+      initialDelayString = "#{${geoip.maxmind.refresh.interval:60}*60*1000}")
+  public synchronized void refresh() {
+    log.info("Checking if maxmind DB is up to date");
+    try {
+      if (update()) {
+        load();
+      }
+    } catch (Exception e) {
+      log.error("Error while refreshing Maxmind GEO/ASN database, keep using current version", e);
+    }
+  }
+
+  /**
+   * Download new versions of the databases
+   * 
+   * @return true if a database was downloaded
+   */
+  private boolean update() {
+    boolean updated = false;
+
     String url = urlCountryDb + licenseKeyFree;
     if (usePaidVersion) {
       url = urlCountryDbPaid + licenseKeyPaid;
     }
 
-    if (shouldUpdate(countryFile, url)) {
+    if (shouldUpdate(countryFile(), url)) {
       log.info("GEOIP country database does not exist or is too old, fetch latest version");
-     
-      download(countryFile, url, 30);
-      geoDbInitialised = false;
-    }
 
+      updated |= download(countryFile(), url, 30);
+    }
 
     url = urlAsnDb + licenseKeyFree;
     if (usePaidVersion) {
       url = urlAsnDbPaid + licenseKeyPaid;
     }
-    
-    if (shouldUpdate(asnFile, url)) {
+
+    if (shouldUpdate(asnFile(), url)) {
       log.info("GEOIP ASN database does not exist or is too old, fetch latest version");
-      
-      download(asnFile, url, 30);
-      geoDbInitialised = false;
+
+      updated |= download(asnFile(), url, 30);
     }
 
+    return updated;
+  }
+
+  private void load() {
+    FileMode mode = mmap ? FileMode.MEMORY_MAPPED : FileMode.MEMORY;
     try {
-      // geo
-      if (!geoDbInitialised) {
-        File database = new File(FileUtil.appendPath(location, countryFile));
-        geoReader = new DatabaseReader.Builder(database)
-            .withCache(new CHMCache(DEFAULT_CACHE_SIZE))
-            .fileMode(FileMode.MEMORY)
-            .build();
-        // asn
-        database = new File(FileUtil.appendPath(location, asnFile));
-        asnReader = new DatabaseReader.Builder(database)
-            .withCache(new CHMCache(DEFAULT_CACHE_SIZE))
-            .fileMode(FileMode.MEMORY)
-            .build();
-        geoDbInitialised = true;
-      }
+      Reader geo = new Reader(new File(FileUtil.appendPath(location, countryFile())), mode,
+          new CHMCache(DEFAULT_CACHE_SIZE));
+      Reader asn = new Reader(new File(FileUtil.appendPath(location, asnFile())), mode,
+          new CHMCache(DEFAULT_CACHE_SIZE));
+      // the old readers are not closed, lookups may still be using them. they are released by
+      // the gc and a replaced file stays readable until then because downloads are renamed
+      databases = new Databases(geo, asn);
+      log.info("Loaded Maxmind GEO/ASN database using file mode: {}", mode);
     } catch (IOException e) {
       throw new RuntimeException("Error initializing Maxmind GEO/ASN database", e);
     }
@@ -221,42 +255,29 @@ public class GeoIPServiceImpl implements GeoIPService {
 	    return null;
 	  }
 
-  /*
-   * (non-Javadoc)
-   * 
-   * @see nl.sidn.pcap.ip.geo.GeoIPService#lookupCountry(java.net.InetAddress)
-   */
   @Override
-  public Optional<CountryResponse> lookupCountry(InetAddress ip) {
+  public GeoIPInfo lookup(InetAddress ip) {
+    // use the same version of both databases for the complete lookup
+    Databases db = databases;
+    CountryRecord c = null;
     try {
-      return geoReader.tryCountry(ip);
+      c = db.geo.get(ip, CountryRecord.class);
     } catch (Exception e) {
       log.error("Maxmind lookup error for: {}", ip, e);
     }
-    return Optional.empty();
-  }
 
-  /*
-   * (non-Javadoc)
-   * 
-   * @see nl.sidn.pcap.ip.geo.GeoIPService#lookupASN(java.net.InetAddress)
-   */
-  @Override
-  public Optional<? extends AsnResponse> lookupASN(InetAddress ip) {
+    // the ASN (free) and ISP (paid) databases use the same names for ASN and organisation
+    AsnRecord a = null;
     try {
-      if (usePaidVersion) {
-        // paid version returns IspResponse
-        return asnReader.tryIsp(ip);
-      }
-
-      // use free version
-      return asnReader.tryAsn(ip);
-
+      a = db.asn.get(ip, AsnRecord.class);
     } catch (Exception e) {
       log.error("Maxmind error for IP: {}", ip, e);
     }
 
-    return Optional.empty();
+    if (a == null) {
+      return c != null ? c.info : GeoIPInfo.EMPTY;
+    }
+    return a.info(c != null ? c.isoCode : null);
   }
 
   public boolean download(String database, String url, int timeout) {
@@ -309,17 +330,90 @@ public class GeoIPServiceImpl implements GeoIPService {
           byte[] data = new byte[4096];
 
           String outFile = Paths.get(entry.getName()).getFileName().toString();
-          FileOutputStream fos =
-              new FileOutputStream(FileUtil.appendPath(location, outFile), false);
-          try (BufferedOutputStream dest = new BufferedOutputStream(fos, 4096)) {
-            while ((count = tarIn.read(data, 0, 4096)) != -1) {
-              dest.write(data, 0, count);
+          // never overwrite the current file, it may be memory mapped by a reader (also of
+          // another instance). write to a temp file and replace the current file using a rename
+          Path tmp = Files.createTempFile(Paths.get(location), outFile, ".tmp");
+          try {
+            FileOutputStream fos = new FileOutputStream(tmp.toFile(), false);
+            try (BufferedOutputStream dest = new BufferedOutputStream(fos, 4096)) {
+              while ((count = tarIn.read(data, 0, 4096)) != -1) {
+                dest.write(data, 0, count);
+              }
             }
+            Files
+                .move(tmp, Paths.get(FileUtil.appendPath(location, outFile)),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          } finally {
+            Files.deleteIfExists(tmp);
           }
         }
       }
     }
   }
 
+  private static class Databases {
+
+    private final Reader geo;
+    private final Reader asn;
+
+    private Databases(Reader geo, Reader asn) {
+      this.geo = geo;
+      this.asn = asn;
+    }
+  }
+
+  /**
+   * Country database record, only the country ISO code is decoded. The reader cache returns the
+   * same record for all addresses in a network, so the lookup result is created only once.
+   */
+  public static class CountryRecord {
+
+    private final String isoCode;
+    private final GeoIPInfo info;
+
+    @MaxMindDbConstructor
+    public CountryRecord(@MaxMindDbParameter(name = "country") Country country) {
+      this.isoCode = country != null ? country.isoCode : null;
+      this.info = isoCode != null ? new GeoIPInfo(isoCode, null, null) : GeoIPInfo.EMPTY;
+    }
+  }
+
+  public static class Country {
+
+    private final String isoCode;
+
+    @MaxMindDbConstructor
+    public Country(@MaxMindDbParameter(name = "iso_code") String isoCode) {
+      this.isoCode = isoCode;
+    }
+  }
+
+  /**
+   * ASN or ISP database record, only the ASN and organisation are decoded. Records are shared by
+   * the lookup threads through the reader cache, the last lookup result is kept and reused when
+   * the next address of the network is in the same country.
+   */
+  public static class AsnRecord {
+
+    private final String asn;
+    private final String organisation;
+    private volatile GeoIPInfo info;
+
+    @MaxMindDbConstructor
+    public AsnRecord(@MaxMindDbParameter(name = "autonomous_system_number") Long asn,
+        @MaxMindDbParameter(name = "autonomous_system_organization") String organisation) {
+      this.asn = asn != null ? asn.toString() : null;
+      this.organisation = organisation;
+    }
+
+    GeoIPInfo info(String country) {
+      GeoIPInfo i = info;
+      if (i == null || !Objects.equals(i.getCountry(), country)) {
+        i = new GeoIPInfo(country, asn, organisation);
+        info = i;
+      }
+      return i;
+    }
+  }
 
 }
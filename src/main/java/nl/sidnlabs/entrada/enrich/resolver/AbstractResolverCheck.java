@@ -24,23 +24,14 @@ import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.time.DateUtils;
-import org.apache.commons.net.util.SubnetUtils;
 import org.springframework.beans.factory.annotation.Value;
-import com.google.common.base.Charsets;
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
-import com.googlecode.ipv6.IPv6Address;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
@@ -50,8 +41,9 @@ import lombok.extern.log4j.Log4j2;
 @Setter
 public abstract class AbstractResolverCheck implements DnsResolverCheck {
 
-  private List<FastIpSubnet> matchers4 = new ArrayList<>();
-  private List<FastIpSubnet> matchers6 = new ArrayList<>();
+  // only created when match is used, ResolverEnrichment uses a single trie for all checks
+  private volatile IpPrefixTrie prefixes;
+  private List<String> subnets = Collections.emptyList();
 
   @Value("${entrada.location.persistence}")
   private String workDir;
@@ -59,8 +51,6 @@ public abstract class AbstractResolverCheck implements DnsResolverCheck {
   @Value("${public-resolver.match.cache.size:10000}")
   private int maxMatchCacheSize;
 
-  private BloomFilter<String> ipv4Filter;
-
   public void init() {
 
     String filename = workDir + System.getProperty("file.separator") + getFilename();
@@ -74,34 +64,6 @@ public abstract class AbstractResolverCheck implements DnsResolverCheck {
     load(file);
   }
 
-  private void createIpV4BloomFilter(List<String> subnets) {
-    Set<String> ipv4Set = new HashSet<>();
-    if (!subnets.isEmpty()) {
-
-      for (String sn : subnets) {
-        if (sn.contains(".")) {
-          String cidr = StringUtils.substringAfter(sn, "/");
-          if (NumberUtils.isCreatable(cidr)) {
-            SubnetUtils utils = new SubnetUtils(sn);
-            for (String ip : utils.getInfo().getAllAddresses()) {
-              ipv4Set.add(ip);
-            }
-          } else {
-            log.info("Not adding invalid subnet {} to IPv4 bloomfilter", sn);
-          }
-        }
-      }
-    }
-
-    ipv4Filter = BloomFilter.create(Funnels.stringFunnel(Charsets.US_ASCII), ipv4Set.size(), 0.01);
-
-    for (String addr : ipv4Set) {
-      ipv4Filter.put(addr);
-    }
-
-    log.info("Created IPv4 filter table with size: {}", ipv4Set.size());
-  }
-
   private void update(File file) {
     // load new subnets from source
     List<String> subnets = fetch();
@@ -122,38 +84,26 @@ public abstract class AbstractResolverCheck implements DnsResolverCheck {
       return;
     }
 
-    createIpV4BloomFilter(lines);
-
-    matchers4.clear();
-    matchers6.clear();
-
-    lines
-        .stream()
-        .filter(s -> s.contains("."))
-        .map(this::subnetFor)
-        .filter(Objects::nonNull)
-        .forEach(s -> matchers4.add(s));
+    // the trie is only used to check the subnets
+    IpPrefixTrie trie = new IpPrefixTrie();
+    List<String> valid = new ArrayList<>();
+    for (String subnet : lines) {
+      if (StringUtils.isBlank(subnet)) {
+        continue;
+      }
+      if (trie.add(subnet, 0)) {
+        valid.add(subnet);
+      } else {
+        log.error("Cannot create subnet for: {}", subnet);
+      }
+    }
 
-    lines
-        .stream()
-        .filter(s -> s.contains(":"))
-        .map(this::subnetFor)
-        .filter(Objects::nonNull)
-        .forEach(s -> matchers6.add(s));
+    subnets = valid;
+    prefixes = null;
 
     log.info("Loaded {} resolver addresses from file: {}", getMatcherCount(), file);
   }
 
-  private FastIpSubnet subnetFor(String address) {
-    try {
-      return new FastIpSubnet(address);
-    } catch (UnknownHostException e) {
-      log.error("Cannot create subnet for: {}", address, e);
-    }
-
-    return null;
-  }
-
   protected abstract List<String> fetch();
 
   private boolean isFileAvailable(File file) {
@@ -185,55 +135,26 @@ public abstract class AbstractResolverCheck implements DnsResolverCheck {
 
   protected abstract String getFilename();
 
-
-  private boolean isIpv4(String address) {
-    return address.indexOf('.') != -1;
-  }
-
-  private boolean isIpv4InFilter(String address) {
-    return ipv4Filter.mightContain(address);
-  }
-
   @Override
   public boolean match(String address, InetAddress inetAddress) {
-
-    if (isIpv4(address)) {
-      // do v4 check only
-      if (isIpv4InFilter(address)) {
-        return checkv4(address, inetAddress);
-      }
-
-      return false;
-
-    }
-
-    // do v6 check only
-    return checkv6(address, inetAddress);
+    return prefixes().lookup(address, inetAddress) != IpPrefixTrie.NO_MATCH;
   }
 
-  private boolean checkv4(String address, InetAddress inetAddress) {
-    for (FastIpSubnet sn : matchers4) {
-      if (sn.contains(inetAddress)) {
-        // addToCache(address);
-        return true;
+  private IpPrefixTrie prefixes() {
+    IpPrefixTrie trie = prefixes;
+    if (trie == null) {
+      trie = new IpPrefixTrie();
+      for (String subnet : subnets) {
+        trie.add(subnet, 0);
       }
+      prefixes = trie;
     }
-    return false;
-  }
-
-  private boolean checkv6(String address, InetAddress inetAddress) {
-    for (FastIpSubnet sn : matchers6) {
-      if (sn.contains(inetAddress)) {
-        // addToCache(address);
-        return true;
-      }
-    }
-    return false;
+    return trie;
   }
 
   @Override
   public int getMatcherCount() {
-    return matchers4.size() + matchers6.size();
+    return subnets.size();
   }
 
   @Override
@@ -241,8 +162,6 @@ public abstract class AbstractResolverCheck implements DnsResolverCheck {
     if (log.isDebugEnabled()) {
       log.debug("{} Clear match cache", getName());
     }
-
-    ipv4Filter = null;
   }
 
 }
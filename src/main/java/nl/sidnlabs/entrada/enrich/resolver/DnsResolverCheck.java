@@ -1,6 +1,7 @@
 package nl.sidnlabs.entrada.enrich.resolver;
 
 import java.net.InetAddress;
+import java.util.List;
 
 public interface DnsResolverCheck {
 
@@ -12,5 +13,10 @@ public interface DnsResolverCheck {
 
   int getMatcherCount();
 
+  /**
+   * @return the subnets (CIDR notation) of the resolver operator
+   */
+  List<String> getSubnets();
+
   void done();
 }
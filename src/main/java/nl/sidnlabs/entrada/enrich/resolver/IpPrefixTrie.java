@@ -0,0 +1,201 @@
+package nl.sidnlabs.entrada.enrich.resolver;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import com.google.common.net.InetAddresses;
+
+/**
+ * Binary trie of IPv4 and IPv6 prefixes, each prefix has an int value e.g. the index of the
+ * resolver operator. A lookup walks at most prefix length nodes and returns the value of the
+ * longest matching prefix, or the lowest value of all matching prefixes. The nodes are stored in
+ * int arrays, there are no node objects.
+ *
+ * IPv4 addresses are parsed from the address string without creating objects, for IPv6 the bytes
+ * of the InetAddress are used.
+ */
+public class IpPrefixTrie {
+
+  public static final int NO_MATCH = -1;
+
+  private static final int ROOT4 = 0;
+  private static final int ROOT6 = 1;
+
+  // child nodes of node n are at 2n (bit 0) and 2n + 1 (bit 1), 0 means no child
+  private int[] children = new int[256];
+  // value of node n, NO_MATCH if no prefix ends at the node
+  private int[] values = new int[128];
+  private int nodes = 2;
+  private int prefixes;
+
+  public IpPrefixTrie() {
+    Arrays.fill(values, NO_MATCH);
+  }
+
+  /**
+   * Add a prefix, when the prefix has already been added the existing value is kept.
+   *
+   * @param subnet prefix in CIDR notation e.g. 192.168.1.0/24 or 2001:db8::/32
+   * @param value value returned for addresses in the subnet, must be >= 0
+   * @return false if the subnet is not valid
+   */
+  public boolean add(String subnet, int value) {
+    String prefix = StringUtils.substringAfter(subnet, "/");
+    if (!NumberUtils.isDigits(prefix)) {
+      return false;
+    }
+
+    byte[] addr;
+    try {
+      addr = InetAddresses.forString(StringUtils.substringBefore(subnet, "/")).getAddress();
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+
+    int length = Integer.parseInt(prefix);
+    if (length > addr.length * 8) {
+      return false;
+    }
+
+    int node = addr.length == 4 ? ROOT4 : ROOT6;
+    for (int i = 0; i < length; i++) {
+      int bit = (addr[i >>> 3] >>> (7 - (i & 7))) & 1;
+      int child = children[2 * node + bit];
+      if (child == 0) {
+        child = newNode();
+        children[2 * node + bit] = child;
+      }
+      node = child;
+    }
+
+    if (values[node] == NO_MATCH) {
+      values[node] = value;
+      prefixes++;
+    }
+    return true;
+  }
+
+  private int newNode() {
+    if (nodes == values.length) {
+      children = Arrays.copyOf(children, children.length * 2);
+      int size = values.length;
+      values = Arrays.copyOf(values, size * 2);
+      Arrays.fill(values, size, values.length, NO_MATCH);
+    }
+    return nodes++;
+  }
+
+  /**
+   * Find the value of the longest prefix that contains the address
+   *
+   * @param address the address as string
+   * @param inetAddress the same address as InetAddress
+   * @return value or {@link #NO_MATCH}
+   */
+  public int lookup(String address, InetAddress inetAddress) {
+    return lookup(address, inetAddress, false);
+  }
+
+  /**
+   * Find the lowest value of all prefixes that contain the address, e.g. when the value is the
+   * index of the resolver operator the first operator with a matching prefix is found.
+   *
+   * @param address the address as string
+   * @param inetAddress the same address as InetAddress
+   * @return value or {@link #NO_MATCH}
+   */
+  public int lookupLowest(String address, InetAddress inetAddress) {
+    return lookup(address, inetAddress, true);
+  }
+
+  private int lookup(String address, InetAddress inetAddress, boolean lowest) {
+    if (inetAddress instanceof Inet4Address) {
+      long v4 = parseIpv4(address);
+      if (v4 != -1) {
+        return lookup4((int) v4, lowest);
+      }
+    }
+    return lookup(inetAddress.getAddress(), lowest);
+  }
+
+  private int lookup4(int addr, boolean lowest) {
+    int node = ROOT4;
+    int match = values[node];
+    for (int i = 31; i >= 0; i--) {
+      node = children[2 * node + ((addr >>> i) & 1)];
+      if (node == 0) {
+        break;
+      }
+      match = match(match, values[node], lowest);
+    }
+    return match;
+  }
+
+  private int lookup(byte[] addr, boolean lowest) {
+    int node = addr.length == 4 ? ROOT4 : ROOT6;
+    int match = values[node];
+    for (int i = 0; i < addr.length * 8; i++) {
+      node = children[2 * node + ((addr[i >>> 3] >>> (7 - (i & 7))) & 1)];
+      if (node == 0) {
+        break;
+      }
+      match = match(match, values[node], lowest);
+    }
+    return match;
+  }
+
+  private static int match(int match, int value, boolean lowest) {
+    if (value == NO_MATCH) {
+      return match;
+    }
+    if (lowest && match != NO_MATCH) {
+      return Math.min(match, value);
+    }
+    return value;
+  }
+
+  /**
+   * @return address as unsigned int or -1 if not a valid dotted quad
+   */
+  private static long parseIpv4(String address) {
+    if (address == null) {
+      return -1;
+    }
+
+    long result = 0;
+    int octet = 0;
+    int digits = 0;
+    int dots = 0;
+    for (int i = 0; i < address.length(); i++) {
+      char c = address.charAt(i);
+      if (c >= '0' && c <= '9') {
+        octet = octet * 10 + (c - '0');
+        if (++digits > 3 || octet > 255) {
+          return -1;
+        }
+      } else if (c == '.' && digits > 0 && dots < 3) {
+        result = (result << 8) | octet;
+        octet = 0;
+        digits = 0;
+        dots++;
+      } else {
+        return -1;
+      }
+    }
+
+    if (dots != 3 || digits == 0) {
+      return -1;
+    }
+    return (result << 8) | octet;
+  }
+
+  /**
+   * @return number of prefixes in the trie
+   */
+  public int size() {
+    return prefixes;
+  }
+
+}
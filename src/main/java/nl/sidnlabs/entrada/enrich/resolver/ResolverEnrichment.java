@@ -3,18 +3,31 @@ package nl.sidnlabs.entrada.enrich.resolver;
 import java.net.InetAddress;
 import java.util.List;
 import org.springframework.stereotype.Component;
+import lombok.extern.log4j.Log4j2;
 import nl.sidnlabs.entrada.enrich.AddressEnrichment;
 
+@Log4j2
 @Component
 public class ResolverEnrichment implements AddressEnrichment {
 
-  private List<DnsResolverCheck> resolverChecks;
+  // prefixes of all resolver operators, the value is the index of the operator name. This is the
+  // only trie used for enrichment, the checks do not keep a trie of their own.
+  private final IpPrefixTrie prefixes = new IpPrefixTrie();
+  private final String[] names;
 
   public ResolverEnrichment(List<DnsResolverCheck> resolverChecks) {
-    this.resolverChecks = resolverChecks;
-    for (DnsResolverCheck check : resolverChecks) {
+    names = new String[resolverChecks.size()];
+    for (int i = 0; i < resolverChecks.size(); i++) {
+      DnsResolverCheck check = resolverChecks.get(i);
       check.init();
+      names[i] = check.getName();
+      // when the address is in prefixes of multiple operators the first check wins, also when a
+      // later check has a longer prefix
+      int operator = i;
+      check.getSubnets().forEach(s -> prefixes.add(s, operator));
     }
+
+    log.info("Created resolver prefix trie with {} prefixes", prefixes.size());
   }
 
   /**
@@ -25,15 +38,8 @@ public class ResolverEnrichment implements AddressEnrichment {
    */
   @Override
   public String match(String address, InetAddress inetAddress) {
-
-    for (DnsResolverCheck check : resolverChecks) {
-      if (check.match(address, inetAddress)) {
-        String value = check.getName();
-        return value;
-      }
-    }
-
-    return null;
+    int operator = prefixes.lookupLowest(address, inetAddress);
+    return operator != IpPrefixTrie.NO_MATCH ? names[operator] : null;
   }
 
 
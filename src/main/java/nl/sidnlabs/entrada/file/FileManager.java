@@ -3,6 +3,7 @@ package nl.sidnlabs.entrada.file;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public interface FileManager {
 
@@ -22,8 +23,34 @@ public interface FileManager {
 
   List<String> files(String location, boolean recursive, String... filter);
 
+  /**
+   * Get the files in a location (not recursive) that sort after a file, file managers that support
+   * listing from a start position should override this to avoid listing the complete location.
+   * 
+   * @param location the location to list
+   * @param startAfter only return files after this file, null to return all files
+   * @param filter extensions of the files to return
+   * @return files after startAfter
+   */
+  default List<String> filesAfter(String location, String startAfter, String... filter) {
+    return files(location, false, filter)
+        .stream()
+        .filter(f -> startAfter == null || f.compareTo(startAfter) > 0)
+        .collect(Collectors.toList());
+  }
+
   Optional<InputStream> open(String location);
 
+  /**
+   * Start reading a file that will be opened soon, used for remote files to hide the latency of
+   * the first read.
+   * 
+   * @param location the file that will be opened
+   */
+  default void prefetch(String location) {
+    // do nothing
+  }
+
   /**
    * Upload a local directory to another location, this can be local, S3 or HDFS
    * 
@@ -7,10 +7,17 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -25,6 +32,7 @@ import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.StorageClass;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.log4j.Log4j2;
 import nl.sidnlabs.entrada.util.FileUtil;
 
@@ -43,11 +51,42 @@ public class S3FileManagerImpl implements FileManager {
   @Value("${aws.upload.archive.storage-class}")
   private String archiveStorageClass;
 
+  @Value("${aws.download.part.mb.size:8}")
+  private int downloadPartSize;
+  // max number of input files that are prefetched
+  @Value("${aws.download.prefetch.files:4}")
+  private int prefetchFiles;
+
+  private final int downloadParallelism;
+  private final ExecutorService downloadExecutor;
+  // separate pool for prefetching, so prefetching does not delay the parts of the current files
+  private final ExecutorService prefetchExecutor;
+  // streams for files that are prefetched but not yet opened, oldest first. The future is added
+  // before the prefetch starts, so a file that is opened while its prefetch is pending is only
+  // downloaded once.
+  private final Map<String, CompletableFuture<S3PrefetchInputStream>> prefetched =
+      new LinkedHashMap<>();
+
   // private TransferManager transferManager;
 
   public S3FileManagerImpl(AmazonS3 amazonS3, @Value("${aws.upload.parallelism}") int parallelism,
-      @Value("${aws.upload.multipart.mb.size:5}") int multipartSize) {
+      @Value("${aws.upload.multipart.mb.size:5}") int multipartSize,
+      @Value("${aws.download.parallelism:0}") int downloadParallelism,
+      @Value("${aws.download.prefetch.threads:1}") int prefetchThreads) {
     this.amazonS3 = amazonS3;
+    this.downloadParallelism = downloadParallelism;
+    this.downloadExecutor = downloadParallelism > 0 ? Executors
+        .newFixedThreadPool(downloadParallelism,
+            new ThreadFactoryBuilder().setNameFormat("entrada-s3-%d").setDaemon(true).build())
+        : null;
+    this.prefetchExecutor = downloadParallelism > 0 && prefetchThreads > 0
+        ? Executors
+            .newFixedThreadPool(prefetchThreads,
+                new ThreadFactoryBuilder()
+                    .setNameFormat("entrada-s3-prefetch-%d")
+                    .setDaemon(true)
+                    .build())
+        : null;
 
     // this.transferManager = TransferManagerBuilder
     // .standard()
@@ -80,6 +119,11 @@ public class S3FileManagerImpl implements FileManager {
 
   @Override
   public List<String> files(String location, boolean recursive, String... filter) {
+    return filesAfter(location, null, filter);
+  }
+
+  @Override
+  public List<String> filesAfter(String location, String startAfter, String... filter) {
     List<String> files = new ArrayList<>();
 
     Optional<S3Details> details = S3Details.from(location);
@@ -91,6 +135,11 @@ public class S3FileManagerImpl implements FileManager {
         .withBucketName(details.get().getBucket())
         .withPrefix(StringUtils.appendIfMissing(details.get().getKey(), "/", "/"));
 
+    if (startAfter != null) {
+      // S3 returns the keys in lexicographical order, start listing after the key
+      S3Details.from(startAfter).ifPresent(d -> lor.setStartAfter(d.getKey()));
+    }
+
     try {
       ListObjectsV2Result listing;
 
@@ -122,10 +171,32 @@ public class S3FileManagerImpl implements FileManager {
   @Override
   public Optional<InputStream> open(String location) {
     log.debug("Open S3 file: " + location);
+
+    CompletableFuture<S3PrefetchInputStream> pending;
+    synchronized (prefetched) {
+      pending = prefetched.remove(location);
+    }
+    if (pending != null) {
+      if (pending.isDone() && !pending.isCompletedExceptionally()) {
+        // download the rest of the file like a file that was not prefetched
+        S3PrefetchInputStream in = pending.join();
+        in.resume(downloadExecutor, downloadParallelism);
+        return Optional.of(in);
+      }
+      // the prefetch has not been done yet, do not wait for the prefetch pool. A stream that is
+      // created by the prefetch after this is closed.
+      pending.cancel(false);
+    }
+
     Optional<S3Details> details = S3Details.from(location);
 
     if (details.isPresent()) {
       try {
+        if (downloadExecutor != null) {
+          return Optional
+              .of(openPrefetch(details.get(), downloadExecutor, downloadParallelism));
+        }
+
         return Optional
             .of(amazonS3
                 .getObject(new GetObjectRequest(details.get().getBucket(), details.get().getKey()))
@@ -139,7 +210,63 @@ public class S3FileManagerImpl implements FileManager {
     return Optional.empty();
   }
 
+  private S3PrefetchInputStream openPrefetch(S3Details details, ExecutorService executor,
+      int maxParts) {
+    long size = amazonS3
+        .getObjectMetadata(details.getBucket(), details.getKey())
+        .getContentLength();
+    return new S3PrefetchInputStream(amazonS3, details.getBucket(), details.getKey(), size,
+        downloadPartSize * 1024 * 1024, maxParts, executor);
+  }
 
+  /**
+   * Download the first part of the file using the prefetch pool, the remaining parts are
+   * downloaded when the file is opened. Returns without waiting for the S3 requests.
+   */
+  @Override
+  public void prefetch(String location) {
+    if (prefetchExecutor == null) {
+      return;
+    }
+
+    Optional<S3Details> details = S3Details.from(location);
+    if (!details.isPresent()) {
+      return;
+    }
+
+    CompletableFuture<S3PrefetchInputStream> pending = new CompletableFuture<>();
+    synchronized (prefetched) {
+      if (prefetched.putIfAbsent(location, pending) != null) {
+        return;
+      }
+
+      // file is not opened, e.g. because it has already been processed
+      Iterator<CompletableFuture<S3PrefetchInputStream>> it = prefetched.values().iterator();
+      while (prefetched.size() > prefetchFiles && it.hasNext()) {
+        CompletableFuture<S3PrefetchInputStream> f = it.next();
+        f.cancel(false);
+        f.thenAccept(IOUtils::closeQuietly);
+        it.remove();
+      }
+    }
+
+    prefetchExecutor.execute(() -> {
+      if (pending.isDone()) {
+        // opened or evicted before the prefetch started
+        return;
+      }
+
+      try {
+        S3PrefetchInputStream in = openPrefetch(details.get(), prefetchExecutor, 1);
+        if (!pending.complete(in)) {
+          IOUtils.closeQuietly(in);
+        }
+      } catch (Exception e) {
+        log.error("Cannot prefetch {}", location, e);
+        pending.completeExceptionally(e);
+      }
+    });
+  }
 
   /**
    * Upload new parquet files or archive processed pcap files. make sure to set the storage class
@@ -0,0 +1,185 @@
+package nl.sidnlabs.entrada.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.commons.io.IOUtils;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * InputStream for an S3 object that downloads the object in parts using parallel ranged GET
+ * requests. The parts are downloaded ahead of the reader, at most maxParts parts are downloading
+ * or waiting to be read. The download of the first parts is started when the stream is created.
+ * A stream that is created before the file is opened downloads only its first part(s), using an
+ * executor with a lower priority, and switches to the executor for the current file when the file
+ * is opened. Parts that are still waiting for a thread of the first executor are then downloaded
+ * by the executor for the current file.
+ */
+@Log4j2
+public class S3PrefetchInputStream extends InputStream {
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final AmazonS3 amazonS3;
+  private final String bucket;
+  private final String key;
+  private final long size;
+  private final int partSize;
+  private int maxParts;
+  private ExecutorService executor;
+  private final Deque<Part> parts = new ArrayDeque<>();
+
+  // start of the next part to download
+  private long next;
+  private byte[] current;
+  private int position;
+  private boolean closed;
+
+  public S3PrefetchInputStream(AmazonS3 amazonS3, String bucket, String key, long size,
+      int partSize, int maxParts, ExecutorService executor) {
+    this.amazonS3 = amazonS3;
+    this.bucket = bucket;
+    this.key = key;
+    this.size = size;
+    this.partSize = partSize;
+    this.maxParts = maxParts;
+    this.executor = executor;
+
+    prefetch();
+  }
+
+  /**
+   * Download the remaining parts using another executor and max number of parts.
+   *
+   * @param executor executor for downloading the parts that are not yet started
+   * @param maxParts max number of parts downloading or waiting to be read
+   */
+  public synchronized void resume(ExecutorService executor, int maxParts) {
+    this.executor = executor;
+    this.maxParts = maxParts;
+    // parts that are not started yet do not wait for the previous executor
+    for (Part p : parts) {
+      if (p.data.cancel(false)) {
+        p.data = executor.submit(() -> download(p.start, p.end));
+      }
+    }
+    prefetch();
+  }
+
+  private synchronized void prefetch() {
+    while (!closed && parts.size() < maxParts && next < size) {
+      Part p = new Part(next, Math.min(size, next + partSize) - 1);
+      p.data = executor.submit(() -> download(p.start, p.end));
+      parts.add(p);
+      next = p.end + 1;
+    }
+  }
+
+  private byte[] download(long start, long end) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      try (S3Object o =
+          amazonS3.getObject(new GetObjectRequest(bucket, key).withRange(start, end))) {
+        byte[] data = new byte[(int) (end - start + 1)];
+        IOUtils.readFully(o.getObjectContent(), data);
+        return data;
+      } catch (IOException | SdkClientException e) {
+        if (attempt == MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+          throw new IOException("Cannot download bytes " + start + "-" + end + " of " + key, e);
+        }
+        log.warn("Error downloading bytes {}-{} of {}, retry", start, end, key, e);
+      }
+    }
+  }
+
+  /**
+   * @return false when all parts have been read
+   */
+  private boolean nextPart() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+
+    while (current == null || position == current.length) {
+      Future<byte[]> f;
+      synchronized (this) {
+        Part p = parts.poll();
+        if (p == null) {
+          return false;
+        }
+        f = p.data;
+      }
+
+      try {
+        current = f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while downloading: " + key, e);
+      } catch (ExecutionException e) {
+        throw new IOException("Error while downloading: " + key, e.getCause());
+      }
+      position = 0;
+      prefetch();
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextPart()) {
+      return -1;
+    }
+    return current[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!nextPart()) {
+      return -1;
+    }
+
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current != null ? current.length - position : 0;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    current = null;
+    parts.forEach(p -> p.data.cancel(true));
+    parts.clear();
+  }
+
+  private static class Part {
+    private final long start;
+    private final long end;
+    private Future<byte[]> data;
+
+    private Part(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+}
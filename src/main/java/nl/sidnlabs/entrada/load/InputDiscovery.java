@@ -0,0 +1,285 @@
+package nl.sidnlabs.entrada.load;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import lombok.extern.log4j.Log4j2;
+import nl.sidnlabs.entrada.file.FileManager;
+
+/**
+ * Finds new input files without listing the complete input directory for every run.
+ *
+ * The discovered files are kept until they have been processed. For a local directory new files
+ * are found using a WatchService, for remote locations only the files after the listing cursor
+ * are listed. The cursor is the last processed file, all files before the cursor have been
+ * processed and saved to the database. The file names must sort in the order the files are
+ * created, e.g. by including a timestamp. The cursor is saved in the persistence location, so a
+ * restart does not require a full listing. A full listing is still done periodically to find
+ * files that were added out of order.
+ *
+ * The state of each name server is kept between runs, only the first scan after starting the
+ * application is a full listing.
+ */
+@Log4j2
+@Component
+public class InputDiscovery {
+
+  private static final String CURSOR_FILE = "input-cursor";
+
+  @Value("${entrada.location.persistence}")
+  private String workLocation;
+
+  // minutes between full listings of the input location
+  @Value("${entrada.input.discovery.rescan:60}")
+  private int rescanInterval;
+
+  // discovery state for each name server
+  private final Map<String, State> states = new ConcurrentHashMap<>();
+
+  /**
+   * Get the input files in the location that have not been processed yet, sorted by name
+   *
+   * @param server name of the server
+   * @param fm file manager for the location
+   * @param location the input directory
+   * @param filter extensions of the files to return
+   * @return sorted list of files
+   */
+  public List<String> scan(String server, FileManager fm, String location, String... filter) {
+    State state = states.computeIfAbsent(server, State::new);
+    synchronized (state) {
+      return state.scan(fm, location, filter);
+    }
+  }
+
+  /**
+   * Mark the file as processed, the cursor is not moved until the file is saved to the database
+   *
+   * @param server name of the server
+   * @param file the processed file
+   */
+  public void done(String server, String file) {
+    State state = states.get(server);
+    if (state != null) {
+      synchronized (state) {
+        state.done(file);
+      }
+    }
+  }
+
+  /**
+   * Move the cursor past the processed files that have been saved to the database
+   *
+   * @param server name of the server
+   * @param files files saved to the database
+   */
+  public void saved(String server, List<String> files) {
+    State state = states.get(server);
+    if (state != null && !files.isEmpty()) {
+      synchronized (state) {
+        state.saved(files);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    states.values().forEach(s -> {
+      synchronized (s) {
+        s.closeWatcher();
+      }
+    });
+  }
+
+  private class State {
+
+    private final String server;
+    private final TreeSet<String> known = new TreeSet<>();
+    // processed files not yet saved to the database
+    private final TreeSet<String> unsaved = new TreeSet<>();
+    // saved files after a file that has not been saved yet
+    private final TreeSet<String> saved = new TreeSet<>();
+    private String location;
+    private boolean remote;
+    private long lastFullScan;
+
+    private WatchService watcher;
+    private WatchKey watchKey;
+    private String cursor;
+
+    private State(String server) {
+      this.server = server;
+    }
+
+    private List<String> scan(FileManager fm, String location, String... filter) {
+      if (!StringUtils.equals(this.location, location)) {
+        this.location = location;
+        this.remote = !fm.isLocal();
+        closeWatcher();
+        lastFullScan = 0;
+        unsaved.clear();
+        saved.clear();
+        cursor = remote ? loadCursor() : null;
+        if (cursor != null) {
+          // the files before the cursor have been processed, no need for a full listing
+          lastFullScan = System.currentTimeMillis();
+        }
+      }
+
+      boolean full = System.currentTimeMillis() - lastFullScan > rescanInterval * 60_000L;
+      if (!full && !remote) {
+        // watcher is not available or events have been lost
+        full = !pollEvents(filter);
+      }
+
+      if (full) {
+        log.info("Full listing of input location: {}", location);
+        if (!remote) {
+          watch();
+        }
+        known.clear();
+        known.addAll(fm.files(location, false, filter));
+        known.removeAll(unsaved);
+        lastFullScan = System.currentTimeMillis();
+      } else if (remote) {
+        fm.filesAfter(location, cursor, filter).forEach(f -> {
+          if (!unsaved.contains(f)) {
+            known.add(f);
+          }
+        });
+      }
+
+      return new ArrayList<>(known);
+    }
+
+    private void done(String file) {
+      if (known.remove(file) && remote) {
+        unsaved.add(file);
+      }
+    }
+
+    private void saved(List<String> files) {
+      if (!remote) {
+        return;
+      }
+      unsaved.removeAll(files);
+      saved.addAll(files);
+
+      // only move the cursor when all files before the file have been processed and saved
+      String next = null;
+      while (!saved.isEmpty() && (known.isEmpty() || saved.first().compareTo(known.first()) < 0)
+          && (unsaved.isEmpty() || saved.first().compareTo(unsaved.first()) < 0)) {
+        next = saved.pollFirst();
+      }
+
+      if (next != null && (cursor == null || next.compareTo(cursor) > 0)) {
+        cursor = next;
+        saveCursor();
+      }
+    }
+
+    private void watch() {
+      closeWatcher();
+      try {
+        watcher = FileSystems.getDefault().newWatchService();
+        watchKey = Paths
+            .get(location)
+            .register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE);
+      } catch (IOException e) {
+        log.error("Cannot watch input location {}, use full listing", location, e);
+        closeWatcher();
+      }
+    }
+
+    /**
+     * Add the created files to the known files
+     *
+     * @return false if the watcher is not available or events have been lost
+     */
+    private boolean pollEvents(String... filter) {
+      if (watchKey == null) {
+        return false;
+      }
+
+      Path dir = Paths.get(location);
+      for (WatchEvent<?> event : watchKey.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          log.info("Events lost for input location {}", location);
+          watchKey.reset();
+          return false;
+        }
+
+        String file = dir.resolve((Path) event.context()).toAbsolutePath().toString();
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+          known.remove(file);
+        } else if (filter.length == 0 || StringUtils.endsWithAny(file, filter)) {
+          known.add(file);
+        }
+      }
+
+      if (!watchKey.reset()) {
+        // directory no longer accessible
+        closeWatcher();
+        return false;
+      }
+      return true;
+    }
+
+    private void closeWatcher() {
+      if (watcher != null) {
+        try {
+          watcher.close();
+        } catch (IOException e) {
+          log.error("Error while closing watcher for {}", location, e);
+        }
+      }
+      watcher = null;
+      watchKey = null;
+    }
+
+    private Path cursorFile() {
+      return Paths.get(workLocation, CURSOR_FILE + "-" + server + ".txt");
+    }
+
+    private String loadCursor() {
+      Path f = cursorFile();
+      try {
+        if (Files.exists(f)) {
+          String c = StringUtils.trimToNull(new String(Files.readAllBytes(f), UTF_8));
+          // cursor is only valid for the location it was created for
+          return StringUtils.startsWith(c, location) ? c : null;
+        }
+      } catch (IOException e) {
+        log.error("Cannot read input cursor {}", f, e);
+      }
+      return null;
+    }
+
+    private void saveCursor() {
+      Path f = cursorFile();
+      try {
+        Files.write(f, cursor.getBytes(UTF_8));
+      } catch (IOException e) {
+        log.error("Cannot save input cursor {}", f, e);
+      }
+    }
+  }
+
+}
@@ -20,23 +20,42 @@
 package nl.sidnlabs.entrada.load;
 
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import javax.annotation.PostConstruct;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.commons.lang3.StringUtils;
@@ -46,10 +65,13 @@ import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.TreeMultimap;
+import com.google.common.net.InetAddresses;
 import com.typesafe.config.Config;
 import akka.Done;
+import akka.NotUsed;
 import akka.actor.ActorSystem;
 import akka.japi.Pair;
 import akka.stream.ClosedShape;
@@ -58,6 +80,7 @@ import akka.stream.FlowShape;
 import akka.stream.Graph;
 import akka.stream.Outlet;
 import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
 import akka.stream.SinkShape;
 import akka.stream.UniformFanInShape;
 import akka.stream.UniformFanOutShape;
@@ -70,13 +93,19 @@ import akka.stream.javadsl.Merge;
 import akka.stream.javadsl.RunnableGraph;
 import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
 import akka.stream.javadsl.Unzip;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import nl.sidnlabs.dnslib.message.Message;
+import nl.sidnlabs.dnslib.types.MessageType;
 import nl.sidnlabs.entrada.ServerContext;
 import nl.sidnlabs.entrada.SharedContext;
 import nl.sidnlabs.entrada.exception.ApplicationException;
 import nl.sidnlabs.entrada.file.FileManager;
 import nl.sidnlabs.entrada.file.FileManagerFactory;
+import nl.sidnlabs.entrada.load.stream.OrderedReadAhead;
 import nl.sidnlabs.entrada.metric.HistoricalMetricManager;
 import nl.sidnlabs.entrada.model.BaseMetricValues;
 import nl.sidnlabs.entrada.model.Partition;
@@ -89,6 +118,9 @@ import nl.sidnlabs.entrada.support.RequestCacheKey;
 import nl.sidnlabs.entrada.support.RequestCacheValue;
 import nl.sidnlabs.entrada.support.RowData;
 import nl.sidnlabs.entrada.util.CompressionUtil;
+import nl.sidnlabs.entrada.util.MappedInputStream;
+import nl.sidnlabs.entrada.util.ParallelXZInputStream;
+import nl.sidnlabs.entrada.util.ReadAheadInputStream;
 import nl.sidnlabs.entrada.util.FileUtil;
 import nl.sidnlabs.pcap.PcapReader;
 import nl.sidnlabs.pcap.decoder.DNSDecoder;
@@ -96,6 +128,7 @@ import nl.sidnlabs.pcap.decoder.ICMPDecoder;
 import nl.sidnlabs.pcap.decoder.IPDecoder;
 import nl.sidnlabs.pcap.decoder.TCPDecoder;
 import nl.sidnlabs.pcap.decoder.UDPDecoder;
+import nl.sidnlabs.pcap.packet.DNSPacket;
 import nl.sidnlabs.pcap.packet.Datagram;
 import nl.sidnlabs.pcap.packet.DatagramPayload;
 import nl.sidnlabs.pcap.packet.FlowData;
@@ -110,6 +143,11 @@ import nl.sidnlabs.pcap.packet.TCPFlow;
 @Scope(value = ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 public class PacketProcessor {
 
+  // max time to wait for a batch to fill up, before sending an incomplete batch downstream
+  private static final Duration BATCH_MAX_WAIT = Duration.ofMillis(10);
+  // written at the start of the state, older versions start with the flows of the first decoder
+  private static final int STATE_VERSION = 2;
+
   @Value("${entrada.tcp.enable:true}")
   private boolean tcpEnabled;
 
@@ -128,6 +166,30 @@ public class PacketProcessor {
   @Value("${entrada.stream.buffer:16}")
   private int streamBufferSize;
 
+  @Value("${entrada.stream.batch.size:1}")
+  private int streamBatchSize;
+
+  @Value("${entrada.stream.stage.timing:false}")
+  private boolean stageTiming;
+
+  @Value("${entrada.stream.stage.queue:false}")
+  private boolean stageQueue;
+
+  @Value("${entrada.state.checkpoint.interval:0}")
+  private int checkpointInterval;
+
+  @Value("${entrada.input.discovery.incremental:false}")
+  private boolean incrementalDiscovery;
+
+  @Value("${entrada.input.mmap:false}")
+  private boolean mmapInput;
+
+  @Value("${entrada.input.decompress.queue:0}")
+  private int decompressQueue;
+
+  @Value("${entrada.input.decompress.threads:1}")
+  private int decompressThreads;
+
   @Value("${entrada.location.input}")
   private String inputLocation;
 
@@ -158,14 +220,32 @@ public class PacketProcessor {
   @Value("${entrada.row.decoder.count:2}")
   private int rowDecoderCount;
 
-  private PcapReader pcapReader;
+  @Value("${entrada.joiner.count:1}")
+  private int joinerCount;
+
+  @Value("${entrada.input.file.parallel:1}")
+  private int parallelFileCount;
+
+  @Value("${entrada.input.file.parallel.buffer:10000}")
+  private int parallelFileBuffer;
+
+  @Value("${entrada.stream.persistent:false}")
+  private boolean persistentStream;
+
+  @Value("${entrada.stream.persistent.poll:10}")
+  private int persistentPollInterval;
+
+  @Value("${entrada.stream.persistent.flush:1}")
+  private int persistentFlushInterval;
+
+  // the file(s) currently being processed
+  private List<PcapInput> pcapInputs = new ArrayList<>();
   private ApplicationContext applicationContext;
   private StateManager stateManager;
   private ArchiveService fileArchiveService;
+  private InputDiscovery inputDiscovery;
   private SharedContext sharedContext;
 
-  private String currentFileName;
-
   private FileManagerFactory fileManagerFactory;
   private PartitionService partitionService;
   private ServerContext serverCtx;
@@ -181,7 +261,7 @@ public class PacketProcessor {
 
   private Graph<ClosedShape, List<CompletionStage<Done>>> graph;
   private List<RowWriter> writers = new ArrayList<>();
-  private PacketJoiner joiner;
+  private List<PacketJoiner> joiners = new ArrayList<>();
   private List<IPDecoder> ipDecoders = new ArrayList<>();
   private RowBuilder dnsRowbuiler;
   private RowBuilder icmpRowbuiler;
@@ -189,13 +269,15 @@ public class PacketProcessor {
   private boolean stateLoaded = false;
 
   private final MeterRegistry registry;
+  private final StreamStageMetrics stageMetrics;
 
   public PacketProcessor(ServerContext serverCtx, StateManager persistenceManager,
       ArchiveService fileArchiveService, FileManagerFactory fileManagerFactory,
       PartitionService partitionService, HistoricalMetricManager historicalMetricManager,
       UploadService uploadService, SharedContext sharedContext, Config akkaConfig,
       ApplicationContext applicationContext, PacketJoiner joiner,
-      @Qualifier("dns") RowBuilder dnsRowbuiler, @Qualifier("icmp") RowBuilder icmpRowbuiler, MeterRegistry registry) {
+      @Qualifier("dns") RowBuilder dnsRowbuiler, @Qualifier("icmp") RowBuilder icmpRowbuiler, MeterRegistry registry,
+      StreamStageMetrics stageMetrics, InputDiscovery inputDiscovery) {
 
     this.serverCtx = serverCtx;
     this.stateManager = persistenceManager;
@@ -204,11 +286,13 @@ public class PacketProcessor {
     this.partitionService = partitionService;
     this.uploadService = uploadService;
     this.registry = registry;
+    this.stageMetrics = stageMetrics;
+    this.inputDiscovery = inputDiscovery;
     this.metricManager = historicalMetricManager;
     this.sharedContext = sharedContext;
     this.applicationContext = applicationContext;
     this.akkaConfig = akkaConfig;
-    this.joiner = joiner;
+    this.joiners.add(joiner);
     this.dnsRowbuiler = dnsRowbuiler;
     this.icmpRowbuiler = icmpRowbuiler;
   }
@@ -218,6 +302,23 @@ public class PacketProcessor {
     if (rowDecoderCount < 2) {
       throw new ApplicationException("Config option entrada.row.decoder.count must be >= 2");
     }
+
+    if (parallelFileCount < 1) {
+      throw new ApplicationException("Config option entrada.input.file.parallel must be >= 1");
+    }
+
+    if (streamBatchSize < 1) {
+      throw new ApplicationException("Config option entrada.stream.batch.size must be >= 1");
+    }
+
+    if (joinerCount < 1) {
+      throw new ApplicationException("Config option entrada.joiner.count must be >= 1");
+    }
+
+    // joiners are not thread safe, create a new (prototype) instance for each shard
+    for (int i = 1; i < joinerCount; i++) {
+      joiners.add(applicationContext.getBean(PacketJoiner.class));
+    }
   }
 
   private void startAkka() {
@@ -238,13 +339,19 @@ public class PacketProcessor {
     ipDecoders.stream().forEach(IPDecoder::reset);
     dnsRowbuiler.reset();
     icmpRowbuiler.reset();
-    joiner.reset();
+    joiners.stream().forEach(PacketJoiner::reset);
+  }
+
+  private int joinerCounter() {
+    return joiners.stream().mapToInt(PacketJoiner::getCounter).sum();
   }
 
   public void execute() {
     try {
       execute_();
     } finally {
+      // save the processed files that are not yet saved
+      flushArchive();
       // create new graph for each server
       stopAkka();
     }
@@ -257,28 +364,93 @@ public class PacketProcessor {
   private void execute_() {
     // search for input files
     List<String> inputFiles = scan();
-    if (inputFiles.isEmpty()) {
+    if (inputFiles.isEmpty() && !persistentStream) {
       // no files found to process, stop
       return;
     }
 
-    long partitionCheckTs = System.currentTimeMillis();
+    // load the processed files once, instead of a database lookup for each file
+    fileArchiveService.load(serverCtx.getServerInfo().getName());
+
     long startAll = System.currentTimeMillis();
-    int fileCounter = 0;
+    int fileCounter = persistentStream ? readContinuous(inputFiles) : readBatches(inputFiles);
 
-    Map<String, Set<Partition>> createdPartitions = null;
+    if (fileCounter > 0) {
+      // atleast 1 file has been processed
+      stop();
 
-    for (String file : inputFiles) {
-      currentFileName = FileUtil.filename(file);
-      long fileSize = FileUtil.size(file);
+      log
+          .info("Processed " + fileCounter + " files, time: "
+              + (System.currentTimeMillis() - startAll) + "ms");
+
+      // upload newly created data to fs
+      Map<String, Set<Partition>> createdPartitions = createdPartitions();
+      uploadService.upload(createdPartitions, true);
+      createPartitions(createdPartitions);
+
+      // save unmatched packet state to file
+      // the next pcap might have the missing responses
+      persistState();
+    }
+
+    log.info("Ready, processed {} new files", fileCounter);
+  }
+
+  /**
+   * Check if file has already been processed, if so then the file is archived and must be skipped.
+   * 
+   * @param file the file to check
+   * @return true if the file has already been processed
+   */
+  private boolean isProcessed(String file) {
+    if (fileArchiveService.exists(file, serverCtx.getServerInfo().getName())) {
+      if (log.isDebugEnabled()) {
+        log.debug("file {} already processed!, continue with next file", file);
+      }
+      // move the pcap file to archive location or delete
+      archive(file, new Date(), 0, FileUtil.size(file));
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return the files of the batch that have not been processed yet, with their size
+   */
+  private Map<String, Long> unprocessed(List<String> batch) {
+    Map<String, Long> files = new LinkedHashMap<>();
+    for (String file : batch) {
+      if (!isProcessed(file)) {
+        files.put(file, Long.valueOf(FileUtil.size(file)));
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Process the files in batches, each batch of files is processed by a new run of the graph.
+   * 
+   * @param inputFiles the files to process
+   * @return number of processed files
+   */
+  private int readBatches(List<String> inputFiles) {
+    long partitionCheckTs = System.currentTimeMillis();
+    long checkpointTs = System.currentTimeMillis();
+    int fileCounter = 0;
+
+    // read multiple files at the same time when parallel reading is enabled, the files in a batch
+    // are all read by a single run of the graph.
+    List<List<String>> batches = Lists.partition(inputFiles, parallelFileCount);
+    Map<String, Long> nextFiles = batches.isEmpty() ? null : unprocessed(batches.get(0));
+    for (int b = 0; b < batches.size(); b++) {
       Date startDate = new Date();
+      Map<String, Long> files = nextFiles;
+      // the files of the next batch are checked before they are prefetched
+      nextFiles = b + 1 < batches.size() ? unprocessed(batches.get(b + 1)) : null;
 
-      if (fileArchiveService.exists(file, serverCtx.getServerInfo().getName())) {
-        if (log.isDebugEnabled()) {
-          log.debug("file {} already processed!, continue with next file", file);
-        }
-        // move the pcap file to archive location or delete
-        fileArchiveService.archive(file, startDate, 0, fileSize);
+      if (files.isEmpty()) {
+        // all files in batch have already been processed
         continue;
       }
 
@@ -289,7 +461,8 @@ public class PacketProcessor {
 
       // only create akka graph once
       if (graph == null) {
-        graph = createGraph();
+        // the list of inputs is iterated each time the graph is materialized
+        graph = createGraph(Source.from(pcapInputs));
       }
 
       if (!isStateLoaded()) {
@@ -300,43 +473,45 @@ public class PacketProcessor {
       // clear counters
       reset();
 
-      fileCounter++;
+      if (nextFiles != null) {
+        // start reading the files of the next batch while this batch is processed
+        nextFiles.keySet().forEach(f -> fileManagerFactory.getFor(f).prefetch(f));
+      }
+
+      fileCounter += files.size();
       long startTs = System.currentTimeMillis();
-      read(file);
-      registry.counter("entrada.pcap.files.processed").increment();
+      Map<String, Integer> filePackets = read(files.keySet());
+      registry.counter("entrada.pcap.files.processed").increment(files.size());
       long fileProcTime = (System.currentTimeMillis() - startTs);
 
-      double packetsMs = 0;
-      double bytessMs = 0;
+      long batchSize = files.values().stream().mapToLong(Long::longValue).sum();
+      printStats(files.keySet(), fileProcTime, batchSize, joinerCounter());
 
-      if (fileProcTime > 0) {
-        packetsMs = joiner.getCounter() / fileProcTime;
-        bytessMs = fileSize / fileProcTime;
+      for (Map.Entry<String, Long> file : files.entrySet()) {
+        // when a single file is read the joiner counter is used, the joiner cannot tell multiple
+        // files apart so then use the number of packets read from each file
+        int packets = files.size() == 1 ? joinerCounter()
+            : filePackets.getOrDefault(file.getKey(), Integer.valueOf(0)).intValue();
+        // move the pcap file to archive location or delete
+        archive(file.getKey(), startDate, packets, file.getValue().longValue());
       }
 
-      printStats(currentFileName, fileProcTime, fileSize, joiner.getCounter(), packetsMs, bytessMs);
-
-      // move the pcap file to archive location or delete
-      fileArchiveService.archive(file, startDate, joiner.getCounter(), fileSize);
-
       // reset counters
       reset();
 
-      // check if we need to upload using batch (when all input files have been processed) or
-      // upload all files that are not active anymore before all inout data has been processed
-      createdPartitions = createdPartitions();
-
-      if (!uploadBatch) {
-        // upload parquet files that are not active anymore (no longer written to)
-        upload(createdPartitions);
-      }
-
-      // make sure the active partitions are not compacted during bulk loading
-      if (pingPartitions(partitionCheckTs, createdPartitions)) {
+      if (uploadAndPing(partitionCheckTs)) {
         // reset timer
         partitionCheckTs = System.currentTimeMillis();
       }
 
+      if (checkpointInterval > 0
+          && System.currentTimeMillis() - checkpointTs > checkpointInterval * 60_000L) {
+        // the graph is idle between batches, save the state so a crash does not lose the state
+        // of all files processed since the previous run
+        persistState();
+        checkpointTs = System.currentTimeMillis();
+      }
+
       // check if file porcessing has been cancelled.
       if (!sharedContext.isEnabled()) {
         // processing not enabled break current file processing loop
@@ -347,30 +522,217 @@ public class PacketProcessor {
       metricManager.flush();
     }
 
-    if (fileCounter > 0) {
-      // atleast 1 file has been processed
-      stop();
+    return fileCounter;
+  }
 
-      log
-          .info("Processed " + inputFiles.size() + " files, time: "
-              + (System.currentTimeMillis() - startAll) + "ms");
+  /**
+   * Process the files using a single run of the graph, files are pushed into the running graph.
+   * When all files have been pushed into the graph the input location is scanned again for new
+   * files. The graph keeps running until processing is disabled or the application is stopped,
+   * the metrics and the parquet files that are no longer written to are sent periodically.
+   * 
+   * @param inputFiles the files to process
+   * @return number of processed files
+   */
+  private int readContinuous(List<String> inputFiles) {
+    startAkka();
 
-      // upload newly created data to fs
-      uploadService.upload(createdPartitions, true);
-      createPartitions(createdPartitions);
+    Pair<SourceQueueWithComplete<PcapInput>, Source<PcapInput, NotUsed>> queue = Source
+        .<PcapInput>queue(parallelFileCount, OverflowStrategy.backpressure())
+        .preMaterialize(system);
 
-      // save unmatched packet state to file
-      // the next pcap might have the missing responses
-      persistState();
+    graph = createGraph(queue.second());
+    // load the state from the previous run, after the decoders have been created by the graph
+    loadState();
+    reset();
+
+    final List<CompletionStage<Done>> csList = RunnableGraph.fromGraph(graph).run(system);
+    final CompletableFuture<Void> graphDone = CompletableFuture
+        .allOf(csList
+            .stream()
+            .map(CompletionStage::toCompletableFuture)
+            .toArray(CompletableFuture[]::new));
+
+    long partitionCheckTs = System.currentTimeMillis();
+    long flushTs = System.currentTimeMillis();
+    int fileCounter = 0;
+    // files being read by the graph
+    Deque<PcapInput> pending = new ArrayDeque<>();
+    // files found by previous scans, files that are still in the input location after being
+    // processed (archive mode none) are not pushed into the graph again
+    Set<String> seen = new HashSet<>();
+    // files that could not be opened, these are retried when the metrics are flushed
+    Set<String> failed = new HashSet<>();
+    List<String> files = inputFiles;
+
+    try {
+      while (sharedContext.isEnabled() && !graphDone.isDone()) {
+        for (String file : files) {
+          if (!sharedContext.isEnabled()) {
+            // processing not enabled, stop pushing files into the graph
+            log.info("Processing PCAP data is currently not enabled, stopping now");
+            break;
+          }
+
+          if (!seen.add(file) || isProcessed(file)) {
+            continue;
+          }
+
+          Optional<PcapInput> input = createInput(file);
+          if (!input.isPresent()) {
+            failed.add(file);
+            continue;
+          }
+
+          if (pending.size() >= parallelFileCount) {
+            // wait until the oldest file has been read before pushing new file into the graph
+            complete(pending.poll(), graphDone);
+            fileCounter++;
+          }
+
+          log.info("Start reading from file {}", file);
+          QueueOfferResult result = queue.first().offer(input.get()).toCompletableFuture().join();
+          if (result != QueueOfferResult.enqueued()) {
+            closeReader(input.get().getReader());
+            throw new ApplicationException(
+                "Could not push file " + file + " into the graph, result: " + result);
+          }
+          pending.add(input.get());
+        }
+
+        // archive the files that have been read, without waiting for new files
+        while (!pending.isEmpty() && pending.peek().getDone().isDone()) {
+          complete(pending.poll(), graphDone);
+          fileCounter++;
+        }
+
+        if (System.currentTimeMillis() - flushTs > persistentFlushInterval * 60_000L) {
+          // send metrics and parquet files while the graph is running
+          metricManager.flush();
+          flushArchive();
+          if (uploadAndPing(partitionCheckTs)) {
+            // reset timer
+            partitionCheckTs = System.currentTimeMillis();
+          }
+          seen.removeAll(failed);
+          failed.clear();
+          flushTs = System.currentTimeMillis();
+        }
+
+        // look for files that were added while processing the current files, forget the files
+        // that have been removed from the input location
+        List<String> found = scan();
+        seen.retainAll(found);
+        files = found.stream().filter(f -> !seen.contains(f)).collect(Collectors.toList());
+        if (files.isEmpty()) {
+          // no new files, wait before scanning again
+          Thread.sleep(persistentPollInterval * 1000L);
+        }
+      }
+    } catch (InterruptedException e) {
+      // application is stopped
+      log.info("Interrupted while waiting for new files, stopping now");
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      // log all exception, should not happen
+      log.error("Got exception running kka Streams graph", e);
+    } finally {
+      // no more input, let the graph complete
+      queue.first().complete();
     }
 
-    log.info("Ready, processed {} new files", fileCounter);
+    while (!pending.isEmpty()) {
+      complete(pending.poll(), graphDone);
+      fileCounter++;
+    }
+
+    try {
+      // wait until all graph sinks are done
+      waitForGraphToComplete(csList);
+    } catch (Exception e) {
+      log.error("Got exception running kka Streams graph", e);
+    }
+
+    // the graph is completed, metrics for all files can be sent
+    metricManager.flush();
+    return fileCounter;
   }
 
-  private void printStats(String fileName, long fileProcTime, long fileSize, int packets,
-      double packetsMs, double bytessMs) {
+  /**
+   * Wait until all packets of the file have been read by the graph and archive the file.
+   * 
+   * @param input the file being read
+   * @param graphDone completes when the graph completes, unblocks when graph failed
+   */
+  private void complete(PcapInput input, CompletableFuture<Void> graphDone) {
+    try {
+      CompletableFuture.anyOf(input.getDone(), graphDone).join();
+    } catch (Exception e) {
+      log.error("Error while waiting for file {} to be read", input.getFile(), e);
+    }
+
+    closeReader(input.getReader());
+    registry.counter("entrada.pcap.files.processed").increment();
+
+    long fileProcTime = System.currentTimeMillis() - input.getStart().getTime();
+    printStats(Collections.singletonList(input.getFile()), fileProcTime, input.getSize(),
+        input.getPackets().get());
+
+    // move the pcap file to archive location or delete
+    archive(input.getFile(), input.getStart(), input.getPackets().get(), input.getSize());
+  }
+
+  private void archive(String file, Date start, int packets, long bytes) {
+    String server = serverCtx.getServerInfo().getName();
+    List<String> saved = fileArchiveService.archive(file, server, start, packets, bytes);
+    if (incrementalDiscovery) {
+      inputDiscovery.done(server, file);
+      inputDiscovery.saved(server, saved);
+    }
+  }
+
+  private void flushArchive() {
+    String server = serverCtx.getServerInfo().getName();
+    List<String> saved = fileArchiveService.flush(server);
+    if (incrementalDiscovery) {
+      // the discovery cursor only moves past files that have been saved to the database
+      inputDiscovery.saved(server, saved);
+    }
+  }
+
+  /**
+   * Upload the parquet files that are no longer written to and make sure the active partitions are
+   * not compacted.
+   * 
+   * @param partitionCheckTs the last time the partitions were pinged
+   * @return true if the partitions have been pinged
+   */
+  private boolean uploadAndPing(long partitionCheckTs) {
+    // check if we need to upload using batch (when all input files have been processed) or
+    // upload all files that are not active anymore before all inout data has been processed
+    Map<String, Set<Partition>> createdPartitions = createdPartitions();
+
+    if (!uploadBatch) {
+      // upload parquet files that are not active anymore (no longer written to)
+      upload(createdPartitions);
+    }
+
+    // make sure the active partitions are not compacted during bulk loading
+    return pingPartitions(partitionCheckTs, createdPartitions);
+  }
+
+  private void printStats(Collection<String> files, long fileProcTime, long fileSize,
+      int packets) {
+    double packetsMs = 0;
+    double bytessMs = 0;
+
+    if (fileProcTime > 0) {
+      packetsMs = packets / fileProcTime;
+      bytessMs = fileSize / fileProcTime;
+    }
+
     log.info("------------- Processor File Stats -----------------------");
-    log.info("File: {}", fileName);
+    files.stream().forEach(f -> log.info("File: {}", FileUtil.filename(f)));
     log.info("Time (ms): {}", fileProcTime);
     log.info("Size (bytes): {}", fileSize);
     log.info("Packets: {}", packets);
@@ -460,7 +822,8 @@ public class PacketProcessor {
         .add(akka.stream.javadsl.Partition.create(Packet.class, 2, p -> this.protocol(p)));
   }
 
-  private Graph<ClosedShape, List<CompletionStage<Done>>> createGraph() {
+  private Graph<ClosedShape, List<CompletionStage<Done>>> createGraph(
+      Source<PcapInput, NotUsed> input) {
 
     final String serverName = serverCtx.getServerInfo().getServer();
     final List<Sink<GenericRecord, CompletionStage<Done>>> sinks = new ArrayList<>();
@@ -470,11 +833,10 @@ public class PacketProcessor {
       // parquet-dns writers are not thread safe, create new instances
       RowWriter w = applicationContext.getBean("parquet-dns", RowWriter.class);
       writers.add(w);
+      Consumer<GenericRecord> write = timedSink("writer-dns", i, r -> w.write(r, serverName));
 
-      Sink<GenericRecord, CompletionStage<Done>> s = Flow
-          .of(GenericRecord.class)
-          .buffer(streamBufferSize, OverflowStrategy.backpressure())
-          .toMat(Sink.<GenericRecord>foreach(r -> w.write(r, serverName)), Keep.right())
+      Sink<GenericRecord, CompletionStage<Done>> s = buffer(GenericRecord.class, "writer-dns", i)
+          .toMat(Sink.<GenericRecord>foreach(write::accept), Keep.right())
           .async("entrada-dispatcher");
 
       sinks.add(s);
@@ -485,11 +847,10 @@ public class PacketProcessor {
 
       RowWriter w = applicationContext.getBean("parquet-icmp", RowWriter.class);
       writers.add(w);
+      Consumer<GenericRecord> write = timedSink("writer-icmp", i, r -> w.write(r, serverName));
 
-      Sink<GenericRecord, CompletionStage<Done>> s = Flow
-          .of(GenericRecord.class)
-          .buffer(streamBufferSize, OverflowStrategy.backpressure())
-          .toMat(Sink.<GenericRecord>foreach(r -> w.write(r, serverName)), Keep.right())
+      Sink<GenericRecord, CompletionStage<Done>> s = buffer(GenericRecord.class, "writer-icmp", i)
+          .toMat(Sink.<GenericRecord>foreach(write::accept), Keep.right())
           .async("entrada-dispatcher");
 
       sinks.add(s);
@@ -506,11 +867,17 @@ public class PacketProcessor {
           builder.add(Merge.create(2));
       builder.from(METRIC_SINK_MERGE).to(metricSink);
 
-      // create input source, reading pcap file on dedicated thread
+      // create input source, reading pcap file(s) on dedicated thread
       final Outlet<Packet> IN = builder
-          .add(Source
-              .fromJavaStream(() -> pcapReader.stream())
-              .buffer(streamBufferSize, OverflowStrategy.backpressure())
+          .add(input
+              // files are read ahead in parallel, the packets are sent downstream in file order.
+              // A file is done when all its packets have been sent downstream.
+              .via(OrderedReadAhead
+                  .<PcapInput, Packet>flow(this::createPacketSource,
+                      i -> i.getDone().complete(Done.getInstance()),
+                      parallelFileCount, parallelFileBuffer))
+              // the output buffer of the source
+              .via(buffer(Packet.class, "source", 0))
               // send last packet when pcap stream is done to let downstream operators
               // cleanup/close
               .concat(Source.single(Packet.LAST))
@@ -540,11 +907,8 @@ public class PacketProcessor {
 
       // Create ICMP flow
       final FlowShape<Packet, Pair<GenericRecord, BaseMetricValues>> ICMP_ROW_BUILDER = builder
-          .add(Flow
-              .of(Packet.class)
-              .buffer(streamBufferSize, OverflowStrategy.backpressure())
-              .mapAsyncUnordered(icmpRowbuilderCount, p -> CompletableFuture
-                  .supplyAsync(() -> icmpRowbuiler.build(p, serverName), ex)));
+          .add(asyncFlow(Packet.class, "rowbuilder-icmp", 0, icmpRowbuilderCount,
+              p -> icmpRowbuiler.build(p, serverName), ex));
 
       // unzipper for row-builder output
       final FanOutShape2<Pair<GenericRecord, BaseMetricValues>, GenericRecord, BaseMetricValues> ICMP_UNZIP_ROW_METRIC =
@@ -573,23 +937,17 @@ public class PacketProcessor {
 
       // Now add DNS flow
 
-      // add step to join packets (this is not thread safe, don't run this parallel
-      final FlowShape<Packet, RowData> JOIN = builder
-          .add(Flow
-              .of(Packet.class)
-              .buffer(streamBufferSize, OverflowStrategy.backpressure())
-              .mapConcat(p -> joiner.join(p)));
+      // add step to join packets, a joiner is not thread safe. When multiple joiners are used
+      // each joiner gets its own shard of the packets
+      final FlowShape<Packet, RowData> JOIN = createJoiner(builder);
 
       // from protocol partioner send dns packets to joiner
       builder.from(PROT_PARTITIONER.out(DNS.intValue())).via(JOIN);
 
       // create operator to build rows
       final FlowShape<RowData, Pair<GenericRecord, BaseMetricValues>> DNS_ROW_BUILDER = builder
-          .add(Flow
-              .of(RowData.class)
-              .buffer(streamBufferSize, OverflowStrategy.backpressure()) // .withLogLevel(Logging.InfoLevel()))
-              .mapAsyncUnordered(dnsRowbuilderCount, rd -> CompletableFuture
-                  .supplyAsync(() -> dnsRowbuiler.build(rd, serverName), ex)));
+          .add(asyncFlow(RowData.class, "rowbuilder-dns", 0, dnsRowbuilderCount,
+              rd -> dnsRowbuiler.build(rd, serverName), ex));
 
 
       // from dns joiner -> row builder
@@ -621,6 +979,40 @@ public class PacketProcessor {
     });
   }
 
+  /**
+   * Create source for a single pcap file. When multiple files are read in parallel, each file gets
+   * its own async boundary so the files are read and parsed concurrently. The packets of all files
+   * keep their original order, the next files are only read ahead into a buffer until all packets
+   * of the previous file have been sent downstream. This way tcp streams and requests with a
+   * response in the next file are handled the same as when reading a single file at a time.
+   * 
+   * @param input the pcap file to read
+   * @return source with all packets from the file
+   */
+  private Source<Packet, NotUsed> createPacketSource(PcapInput input) {
+    Source<Packet, NotUsed> src =
+        Source.fromJavaStream(() -> timedStream(input.getReader().stream()));
+
+    if (parallelFileCount > 1 || persistentStream) {
+      src = src.map(p -> {
+        input.getPackets().incrementAndGet();
+        return p;
+      });
+    }
+
+    if (persistentStream) {
+      // the graph keeps running after the file has been read, let the joiner purge expired
+      // queries
+      src = src.concat(Source.single(Packet.LAST));
+    }
+
+    if (parallelFileCount > 1) {
+      return src.async("entrada-dispatcher");
+    }
+
+    return src;
+  }
+
   private List<FlowShape<Packet, Packet>> createDecoders(
       Builder<List<CompletionStage<Done>>> builder) {
 
@@ -641,12 +1033,9 @@ public class PacketProcessor {
 
       ipDecoders.add(ipDecoder);
 
-      FlowShape<Packet, Packet> d = builder
-          .add(Flow
-              .of(Packet.class)
-              .buffer(streamBufferSize, OverflowStrategy.backpressure())
-              .mapAsyncUnordered(1,
-                  p -> CompletableFuture.supplyAsync(() -> ipDecoder.decode(p), ex)));
+      // use parallelism of 1, the decoder is stateful and packets must be decoded in order
+      FlowShape<Packet, Packet> d =
+          builder.add(asyncFlow(Packet.class, "decoder", i, 1, ipDecoder::decode, ex));
 
       decoders.add(d);
 
@@ -655,6 +1044,143 @@ public class PacketProcessor {
     return decoders;
   }
 
+  /**
+   * Record the time spent in fn for each element, when stage timing is enabled.
+   *
+   * @param stage name of the stage, used as tag for the timer
+   * @param instance number of the stage instance, used as tag for the timer
+   * @param fn function to time
+   * @return fn or timed version of fn
+   */
+  private <T, R> Function<T, R> timed(String stage, int instance, Function<T, R> fn) {
+    if (!stageTiming) {
+      return fn;
+    }
+
+    final Timer timer = stageMetrics.timer(serverCtx.getServerInfo().getName(), stage, instance);
+    return e -> {
+      long start = System.nanoTime();
+      try {
+        return fn.apply(e);
+      } finally {
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    };
+  }
+
+  private <T> Consumer<T> timedSink(String stage, int instance, Consumer<T> c) {
+    if (!stageTiming) {
+      return c;
+    }
+
+    Function<T, T> fn = timed(stage, instance, e -> {
+      c.accept(e);
+      return e;
+    });
+    return fn::apply;
+  }
+
+  /**
+   * Time reading the packets from a pcap file, the packets are read (and parsed) by the reader when
+   * the next packet is requested from the iterator.
+   */
+  private Stream<Packet> timedStream(Stream<Packet> packets) {
+    if (!stageTiming) {
+      return packets;
+    }
+
+    final Timer timer = stageMetrics.timer(serverCtx.getServerInfo().getName(), "source", 0);
+    final Iterator<Packet> it = packets.iterator();
+    Iterator<Packet> timedIt = new Iterator<Packet>() {
+
+      @Override
+      public boolean hasNext() {
+        long start = System.nanoTime();
+        try {
+          return it.hasNext();
+        } finally {
+          timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+      }
+
+      @Override
+      public Packet next() {
+        return it.next();
+      }
+    };
+
+    return StreamSupport
+        .stream(Spliterators.spliteratorUnknownSize(timedIt, Spliterator.ORDERED), false)
+        .onClose(packets::close);
+  }
+
+  /**
+   * Create backpressured buffer for the elements sent to a stage. When queue metrics are enabled,
+   * the number of elements in the buffer is exposed as a gauge and a counter is incremented each
+   * time the buffer is full, meaning the stage cannot keep up with upstream.
+   *
+   * @param clazz class of the elements
+   * @param stage name of the stage, used as tag for the meters
+   * @param instance number of the stage instance, used as tag for the meters
+   * @return flow with buffer
+   */
+  private <T> Flow<T, T, NotUsed> buffer(Class<T> clazz, String stage, int instance) {
+    if (!stageQueue) {
+      return Flow.of(clazz).buffer(streamBufferSize, OverflowStrategy.backpressure());
+    }
+
+    final String server = serverCtx.getServerInfo().getName();
+    final AtomicInteger depth = stageMetrics.queue(server, stage, instance);
+    final Counter full = stageMetrics.backpressure(server, stage, instance);
+    return Flow.of(clazz).map(e -> {
+      if (depth.incrementAndGet() >= streamBufferSize) {
+        full.increment();
+      }
+      return e;
+    }).buffer(streamBufferSize, OverflowStrategy.backpressure()).map(e -> {
+      depth.decrementAndGet();
+      return e;
+    });
+  }
+
+  /**
+   * Create flow that applies fn to each element using the executor. When the batch size is > 1, the
+   * elements are grouped into batches and a batch is processed by a single task, this lowers the
+   * overhead of creating futures and scheduling tasks on the dispatcher for each element. With a
+   * parallelism of 1 the order of the elements does not change.
+   *
+   * @param clazz class of the input elements
+   * @param stage name of the stage, used for the stage metrics
+   * @param instance number of the stage instance, used for the stage metrics
+   * @param parallelism max number of tasks to run in parallel
+   * @param f function to apply to each element
+   * @param ex executor to run the tasks
+   * @return flow with the output of fn
+   */
+  private <T, R> Flow<T, R, NotUsed> asyncFlow(Class<T> clazz, String stage, int instance,
+      int parallelism, Function<T, R> f, Executor ex) {
+
+    final Function<T, R> fn = timed(stage, instance, f);
+    Flow<T, T, NotUsed> flow = buffer(clazz, stage, instance);
+
+    if (streamBatchSize == 1) {
+      return flow
+          .mapAsyncUnordered(parallelism,
+              e -> CompletableFuture.supplyAsync(() -> fn.apply(e), ex));
+    }
+
+    return flow
+        .groupedWithin(streamBatchSize, BATCH_MAX_WAIT)
+        .mapAsyncUnordered(parallelism, batch -> CompletableFuture.supplyAsync(() -> {
+          List<R> results = new ArrayList<>(batch.size());
+          for (T e : batch) {
+            results.add(fn.apply(e));
+          }
+          return results;
+        }, ex))
+        .mapConcat(results -> results);
+  }
+
   /**
    * The same src/dst and dst/src combinations must be sent to the same decoder because decoders are
    * stateful
@@ -667,8 +1193,13 @@ public class PacketProcessor {
       return Integer.valueOf(0);
     }
 
-    int hash = Math.abs(p.getSrcAddr().hashCode() - p.getDstAddr().hashCode());
-    return Integer.valueOf(hash % rowDecoderCount);
+    return Integer.valueOf(selectDecoder(p.getSrcAddr().hashCode(), p.getDstAddr().hashCode()));
+  }
+
+  private int selectDecoder(int srcHash, int dstHash) {
+    // abs keeps src/dst and dst/src on the same decoder, use floorMod because the abs of
+    // Integer.MIN_VALUE is negative
+    return Math.floorMod(Math.abs(srcHash - dstHash), rowDecoderCount);
   }
 
   private UniformFanOutShape<Packet, Packet> createDecoderPartitioner(
@@ -683,14 +1214,86 @@ public class PacketProcessor {
 
   }
 
+  /**
+   * Create the join step, with a single joiner all packets are joined by the same operator. With
+   * multiple joiners the packets are partitioned over the joiners and each joiner runs on its own
+   * thread. The LAST packet is sent to every joiner, so each joiner purges its own cache.
+   */
+  private FlowShape<Packet, RowData> createJoiner(Builder<List<CompletionStage<Done>>> builder) {
+    if (joinerCount == 1) {
+      final Function<Packet, List<RowData>> join = timed("joiner", 0, joiners.get(0)::join);
+      return builder.add(buffer(Packet.class, "joiner", 0).mapConcat(join::apply));
+    }
+
+    return builder.add(GraphDSL.create(b -> {
+      // copy the LAST packet, one copy for each joiner
+      final List<Packet> lastPackets = Collections.nCopies(joinerCount, Packet.LAST);
+      final FlowShape<Packet, Packet> IN = b
+          .add(Flow
+              .of(Packet.class)
+              .mapConcat(p -> p == Packet.LAST ? lastPackets : Collections.singletonList(p)));
+
+      final AtomicInteger lastCounter = new AtomicInteger();
+      final UniformFanOutShape<Packet, Packet> PARTITIONER = b
+          .add(akka.stream.javadsl.Partition
+              .create(Packet.class, joinerCount, p -> p == Packet.LAST
+                  ? Integer.valueOf(lastCounter.getAndIncrement() % joinerCount)
+                  : Integer.valueOf(joinerPartitionerSelector(p))));
+      final UniformFanInShape<RowData, RowData> MERGE = b.add(Merge.create(joinerCount));
+
+      b.from(IN).toFanOut(PARTITIONER);
+      for (int i = 0; i < joinerCount; i++) {
+        final Function<Packet, List<RowData>> join = timed("joiner", i, joiners.get(i)::join);
+        final FlowShape<Packet, RowData> j = b
+            .add(buffer(Packet.class, "joiner", i)
+                .mapConcat(join::apply)
+                .async("entrada-dispatcher"));
+        b.from(PARTITIONER).via(j).toFanIn(MERGE);
+      }
+
+      return FlowShape.of(IN.in(), MERGE.out());
+    }));
+  }
+
+  /**
+   * A request and its response must be sent to the same joiner, select the joiner using the
+   * client address, port and (for udp) the DNS id. The client is the source of a request and the
+   * destination of a response.
+   *
+   * @param p the packet to join
+   * @return the index of the joiner
+   */
+  private int joinerPartitionerSelector(Packet p) {
+    if (!(p instanceof DNSPacket) || ((DNSPacket) p).getMessages().isEmpty()) {
+      // icmp or malformed packet, the joiner does not need a matching packet
+      return 0;
+    }
+
+    Message msg = ((DNSPacket) p).getMessages().get(0);
+    if (msg.getHeader().getQr() == MessageType.QUERY) {
+      return joinerIndex(p.getProtocol(), p.getSrc(), p.getSrcPort(), msg.getHeader().getId());
+    }
+    return joinerIndex(p.getProtocol(), p.getDst(), p.getDstPort(), msg.getHeader().getId());
+  }
+
+  private int joinerIndex(int protocol, String client, int port, int id) {
+    int hash = 31 * Objects.hashCode(client) + port;
+    if (protocol != PacketFactory.PROTOCOL_TCP) {
+      // a tcp packet may contain multiple dns messages, only use the id for udp
+      hash = 31 * hash + id;
+    }
+    // spread the bits, the low bits of the port and id are not random
+    hash ^= (hash >>> 16);
+    return Math.floorMod(hash, joinerCount);
+  }
+
   private SinkShape<BaseMetricValues> createMetricsSink(
       Builder<List<CompletionStage<Done>>> builder) {
     if (metricsEnabled) {
+      final Consumer<BaseMetricValues> update = timedSink("metrics", 0, metricManager::update);
       return builder
-          .add(Flow
-              .of(BaseMetricValues.class)
-              .buffer(streamBufferSize, OverflowStrategy.backpressure())
-              .toMat(Sink.<BaseMetricValues>foreach(r -> metricManager.update(r)), Keep.right())
+          .add(buffer(BaseMetricValues.class, "metrics", 0)
+              .toMat(Sink.<BaseMetricValues>foreach(update::accept), Keep.right())
               .async("entrada-dispatcher"));
     }
     // ignore metrics output
@@ -698,13 +1301,21 @@ public class PacketProcessor {
 
   }
 
-  private void read(String file) {
-    log.info("Start reading from file {}", file);
+  /**
+   * Read and process the files, all files are processed by a single run of the graph.
+   * 
+   * @param files the files to process
+   * @return the number of packets read from each file
+   */
+  private Map<String, Integer> read(Collection<String> files) {
+    for (String file : files) {
+      log.info("Start reading from file {}", file);
+      createInput(file).ifPresent(pcapInputs::add);
+    }
 
-    // try to open file, if file is not good pcap handle exception and fail fast.
-    if (!createReader(file)) {
-      log.error("Skip bad input file: " + file);
-      return;
+    if (pcapInputs.isEmpty()) {
+      // no file could be opened
+      return new HashMap<>();
     }
 
     try {
@@ -720,12 +1331,22 @@ public class PacketProcessor {
       // log all exception, should not happen
       log.error("Got exception running kka Streams graph", e);
     } finally {
-      // clear expired cache entries
-      pcapReader.clearCache(cacheTimeoutTCPConfig, cacheTimeoutIPFragConfig);
-      // make sure the pcap reader is always closed to avoid leaks
-      pcapReader.close();
+      pcapInputs.stream().forEach(i -> closeReader(i.getReader()));
     }
 
+    Map<String, Integer> packets = pcapInputs
+        .stream()
+        .collect(Collectors
+            .toMap(PcapInput::getFile, i -> Integer.valueOf(i.getPackets().get())));
+    pcapInputs.clear();
+    return packets;
+  }
+
+  private void closeReader(PcapReader pcapReader) {
+    // clear expired cache entries
+    pcapReader.clearCache(cacheTimeoutTCPConfig, cacheTimeoutIPFragConfig);
+    // make sure the pcap reader is always closed to avoid leaks
+    pcapReader.close();
   }
 
   private void waitForGraphToComplete(List<CompletionStage<Done>> csList) {
@@ -746,39 +1367,40 @@ public class PacketProcessor {
     long startTs = System.currentTimeMillis();
 
     try {
-      // persist tcp state
+      stateManager.writeObject(Integer.valueOf(STATE_VERSION));
+
+      // persist tcp state, the flows of all decoders are merged so the state does not depend on
+      // the number of decoders
+      Map<TCPFlow, FlowData> flows = new HashMap<>();
       for (IPDecoder id : ipDecoders) {
-        Map<TCPFlow, FlowData> flows = ((TCPDecoder) id.getTcpReader()).getFlows();
-        flowCount += flows.size();
-        stateManager.writeObject(flows);
+        flows.putAll(((TCPDecoder) id.getTcpReader()).getFlows());
       }
+      stateManager.writeObject(flows);
+      flowCount = flows.size();
 
+      // persist IP datagrams
+      Map<Datagram, Collection<DatagramPayload>> outMap = new HashMap<>();
       for (IPDecoder id : ipDecoders) {
-
         if (id.getDatagrams() != null) {
-          // persist IP datagrams
-          Map<Datagram, Collection<DatagramPayload>> outMap = new HashMap<>();
           for (Map.Entry<Datagram, Collection<DatagramPayload>> entry : id
               .getDatagrams()
               .asMap()
               .entrySet()) {
-            Collection<DatagramPayload> datagrams2persist = new ArrayList<>();
-            for (DatagramPayload sequencePayload : entry.getValue()) {
-              datagrams2persist.add(sequencePayload);
-            }
-            outMap.put(entry.getKey(), datagrams2persist);
+            outMap.put(entry.getKey(), new ArrayList<>(entry.getValue()));
             datagramCount++;
           }
-
-          stateManager.writeObject(outMap);
         }
       }
+      stateManager.writeObject(outMap);
 
-      if (joiner.getRequestCache() != null) {
-        // persist request cache
-        stateManager.writeObject(joiner.getRequestCache());
-        cacheCount = joiner.getRequestCache().size();
+      // persist request cache, each joiner returns a copy of its cache. The caches are merged so
+      // the state does not depend on the number of joiners
+      Map<RequestCacheKey, RequestCacheValue> requestCache = new HashMap<>();
+      for (PacketJoiner joiner : joiners) {
+        requestCache.putAll(joiner.getRequestCache());
       }
+      stateManager.writeObject(requestCache);
+      cacheCount = requestCache.size();
 
       // flush metrics to make sure that metrics that can be sent already are sent
       // always send historical stats to monitoring
@@ -803,7 +1425,7 @@ public class PacketProcessor {
     }
 
     log.info("------------- State Persist Stats ------------------------");
-    log.info("{} (ms) save to disk time", System.currentTimeMillis() - startTs);
+    log.info("{} (ms) serialize time", System.currentTimeMillis() - startTs);
     log.info("{} TCP flows", flowCount);
     log.info("{} UDP datagrams", datagramCount);
     log.info("{} DNS requests from joiner cache", cacheCount);
@@ -811,6 +1433,54 @@ public class PacketProcessor {
     log.info("----------------------------------------------------------");
   }
 
+  /**
+   * Split the persisted request cache over the joiners, using the same selection as the joiner
+   * partitioner. This way the state can be loaded when the number of joiners has changed.
+   */
+  private void setRequestCache(Map<RequestCacheKey, RequestCacheValue> requestCache) {
+    List<Map<RequestCacheKey, RequestCacheValue>> caches = new ArrayList<>();
+    for (int i = 0; i < joinerCount; i++) {
+      caches.add(new HashMap<>());
+    }
+
+    for (Map.Entry<RequestCacheKey, RequestCacheValue> entry : requestCache.entrySet()) {
+      RequestCacheKey key = entry.getKey();
+      Packet packet = entry.getValue().getPacket();
+      int protocol = packet != null ? packet.getProtocol() : 0;
+      caches
+          .get(joinerIndex(protocol, key.getSrc(), key.getSrcPort(), key.getId()))
+          .put(key, entry.getValue());
+    }
+
+    for (int i = 0; i < joinerCount; i++) {
+      joiners.get(i).setRequestCache(caches.get(i));
+    }
+  }
+
+  /**
+   * Get the decoder for persisted state, the result must match
+   * {@link #decoderPartitionerSelector(Packet)} for the packets of the same flow.
+   */
+  private int decoderIndex(String src, String dst) {
+    if (src == null || dst == null) {
+      return 0;
+    }
+
+    try {
+      return selectDecoder(InetAddresses.forString(src).hashCode(),
+          InetAddresses.forString(dst).hashCode());
+    } catch (IllegalArgumentException e) {
+      return 0;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> void putAll(Map<K, V> target, Object state) {
+    if (state != null) {
+      target.putAll((Map<K, V>) state);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private void loadState() {
     log.info("Load internal state from file");
@@ -818,32 +1488,52 @@ public class PacketProcessor {
     stateLoaded = true;
     int flowCount = 0;
     int datagramCount = 0;
+    int cacheCount = 0;
     try {
       if (!stateManager.stateAvailable()) {
         log.info("No state file found, do not try to load previous state");
         return;
       }
-      for (IPDecoder id : ipDecoders) {
-        // read persisted TCP sessions
-        Map<TCPFlow, FlowData> flows = (Map<TCPFlow, FlowData>) stateManager.readObject();
-        if (flows != null) {
-          flowCount += flows.size();
-          ((TCPDecoder) id.getTcpReader()).setFlows(flows);
+      Map<TCPFlow, FlowData> flows = new HashMap<>();
+      Map<Datagram, Collection<DatagramPayload>> inMap = new HashMap<>();
+      Object first = stateManager.readObject();
+      if (first instanceof Integer) {
+        // read persisted TCP sessions and IP datagrams
+        putAll(flows, stateManager.readObject());
+        putAll(inMap, stateManager.readObject());
+      } else {
+        // state from an older version with a map for each decoder, can only be read when the
+        // number of decoders has not changed
+        putAll(flows, first);
+        for (int i = 1; i < ipDecoders.size(); i++) {
+          putAll(flows, stateManager.readObject());
+        }
+        for (int i = 0; i < ipDecoders.size(); i++) {
+          putAll(inMap, stateManager.readObject());
         }
       }
 
-      for (IPDecoder id : ipDecoders) {
-        // read persisted IP datagrams
-        HashMap<Datagram, Collection<DatagramPayload>> inMap =
-            (HashMap<Datagram, Collection<DatagramPayload>>) stateManager.readObject();
-        if (inMap != null) {
-          Multimap<Datagram, DatagramPayload> datagrams = id.getDatagrams();
-          for (Map.Entry<Datagram, Collection<DatagramPayload>> entry : inMap.entrySet()) {
-            for (DatagramPayload dgPayload : entry.getValue()) {
-              datagrams.put(entry.getKey(), dgPayload);
-            }
-          }
-          datagramCount += datagrams.size();
+      // split the state over the decoders, using the same selection as the decoder partitioner
+      List<Map<TCPFlow, FlowData>> decoderFlows = new ArrayList<>();
+      for (int i = 0; i < ipDecoders.size(); i++) {
+        decoderFlows.add(new HashMap<>());
+      }
+      for (Map.Entry<TCPFlow, FlowData> entry : flows.entrySet()) {
+        TCPFlow flow = entry.getKey();
+        decoderFlows.get(decoderIndex(flow.getSrc(), flow.getDst())).put(flow, entry.getValue());
+      }
+      for (int i = 0; i < ipDecoders.size(); i++) {
+        ((TCPDecoder) ipDecoders.get(i).getTcpReader()).setFlows(decoderFlows.get(i));
+      }
+      flowCount = flows.size();
+
+      for (Map.Entry<Datagram, Collection<DatagramPayload>> entry : inMap.entrySet()) {
+        Datagram datagram = entry.getKey();
+        Multimap<Datagram, DatagramPayload> datagrams =
+            ipDecoders.get(decoderIndex(datagram.getSrc(), datagram.getDst())).getDatagrams();
+        for (DatagramPayload dgPayload : entry.getValue()) {
+          datagrams.put(datagram, dgPayload);
+          datagramCount++;
         }
       }
 
@@ -854,13 +1544,13 @@ public class PacketProcessor {
         requestCache = new HashMap<>();
       }
 
-      joiner.setRequestCache(requestCache);
+      setRequestCache(requestCache);
+      cacheCount = requestCache.size();
 
       if (metricsEnabled) {
         metricManager.loadState(stateManager);
       }
     } catch (Exception e) {
-      // when changing the number of configured decoders, loading the old state will fail
       log.error("Error reading state file", e);
       // delete old corrupt state
       stateManager.delete();
@@ -869,7 +1559,7 @@ public class PacketProcessor {
         ((TCPDecoder) id.getTcpReader()).setFlows(new HashMap<>());
         id.setDatagrams(TreeMultimap.create());
       }
-      joiner.setRequestCache(new HashMap<>());
+      setRequestCache(new HashMap<>());
       metricManager.clear();
     } finally {
       stateManager.close();
@@ -878,28 +1568,46 @@ public class PacketProcessor {
     log.info("------------- State loading Stats -------------------------");
     log.info("Loaded TCP state {} TCP flows", flowCount);
     log.info("Loaded Datagram state {} Datagrams", datagramCount);
-    log.info("Loaded Request cache {} DNS requests", joiner.getRequestCache().size());
+    log.info("Loaded Request cache {} DNS requests", cacheCount);
     log.info("Loaded metrics state {} metrics", metricManager.size());
     log.info("----------------------------------------------------------");
   }
 
-  private boolean createReader(String file) {
+  private Optional<PcapInput> createInput(String file) {
+    Date start = new Date();
+    long size = FileUtil.size(file);
+
+    // try to open file, if file is not good pcap handle exception and fail fast.
+    Optional<PcapReader> reader = createReader(file);
+    if (!reader.isPresent()) {
+      log.error("Skip bad input file: " + file);
+      return Optional.empty();
+    }
+
+    return Optional.of(new PcapInput(file, size, start, reader.get()));
+  }
+
+  private Optional<PcapReader> createReader(String file) {
     FileManager fm = fileManagerFactory.getFor(file);
+    if (mmapInput && fm.isLocal() && StringUtils.endsWithIgnoreCase(file, ".pcap")) {
+      return createMappedReader(file);
+    }
+
     Optional<InputStream> ois = fm.open(file);
 
     if (!ois.isPresent()) {
       // cannot create reader, continue with next file
       log.error("Error opening pcap file: " + file);
-      return false;
+      return Optional.empty();
     }
 
     IPDecoder ipDecoder = new IPDecoder(null, null, null);
 
     try {
-      InputStream decompressor =
-          CompressionUtil.getDecompressorStreamWrapper(ois.get(), bufferSizeConfig * 1024, file);
-      this.pcapReader = new PcapReader(new DataInputStream(decompressor), ipDecoder, tcpEnabled,
-          currentFileName, true);
+      InputStream decompressor = decompress(fm, file, ois.get());
+      return Optional
+          .of(new PcapReader(new DataInputStream(decompressor), ipDecoder, tcpEnabled,
+              FileUtil.filename(file), true));
     } catch (IOException e) {
       log.error("Error creating pcap reader for: " + file, e);
       try {
@@ -907,9 +1615,48 @@ public class PacketProcessor {
       } catch (Exception e2) {
         log.error("Cannot close inputstream, maybe it was not yet opened");
       }
-      return false;
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Wrap the input with a decompressor, decompression is done by other threads than the thread
+   * parsing the pcap data when configured.
+   */
+  private InputStream decompress(FileManager fm, String file, InputStream in) throws IOException {
+    if (decompressThreads > 1 && fm.isLocal() && StringUtils.endsWithIgnoreCase(file, ".xz")) {
+      InputStream xz = ParallelXZInputStream.open(new File(file), decompressThreads);
+      if (xz != null) {
+        in.close();
+        return xz;
+      }
+    }
+
+    InputStream decompressor =
+        CompressionUtil.getDecompressorStreamWrapper(in, bufferSizeConfig * 1024, file);
+    if (decompressQueue > 0 && !StringUtils.endsWithIgnoreCase(file, ".pcap")) {
+      return new ReadAheadInputStream(decompressor,
+          "entrada-decompress-" + FileUtil.filename(file), decompressQueue);
+    }
+    return decompressor;
+  }
+
+  /**
+   * Create a reader for an uncompressed local file using a memory mapped file, the pcap data is
+   * read from the page cache without read system calls and buffer copies
+   */
+  private Optional<PcapReader> createMappedReader(String file) {
+    IPDecoder ipDecoder = new IPDecoder(null, null, null);
+
+    try {
+      InputStream in = new MappedInputStream(Paths.get(file));
+      return Optional
+          .of(new PcapReader(new DataInputStream(in), ipDecoder, tcpEnabled,
+              FileUtil.filename(file), true));
+    } catch (IOException e) {
+      log.error("Error creating pcap reader for: " + file, e);
+      return Optional.empty();
     }
-    return true;
   }
 
   private List<String> scan() {
@@ -927,7 +1674,10 @@ public class PacketProcessor {
             System.getProperty("file.separator"));
 
     // order and skip the newest file if skipfirst is true
-    List<String> files = fm.files(inputDir, false, ".pcap", ".gz", ".xz", ".bz2");
+    List<String> files = incrementalDiscovery
+        ? inputDiscovery
+            .scan(serverCtx.getServerInfo().getName(), fm, inputDir, CompressionUtil.EXTENSIONS)
+        : fm.files(inputDir, false, CompressionUtil.EXTENSIONS);
 
     files = files
         .stream()
@@ -958,4 +1708,20 @@ public class PacketProcessor {
     return files.size();
   }
 
+  /**
+   * Pcap file that is read by the graph
+   */
+  @Getter
+  @RequiredArgsConstructor
+  private static class PcapInput {
+    private final String file;
+    private final long size;
+    private final Date start;
+    private final PcapReader reader;
+    // number of packets read from the file
+    private final AtomicInteger packets = new AtomicInteger();
+    // completes when all packets of the file have been sent downstream of the read ahead
+    private final CompletableFuture<Done> done = new CompletableFuture<>();
+  }
+
 }
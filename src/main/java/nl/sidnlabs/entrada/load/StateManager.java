@@ -1,29 +1,94 @@
 package nl.sidnlabs.entrada.load;
 
-import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.log4j.Log4j2;
+import nl.sidnlabs.dnslib.message.Header;
+import nl.sidnlabs.dnslib.message.Message;
+import nl.sidnlabs.dnslib.message.Question;
+import nl.sidnlabs.dnslib.message.records.edns0.ClientSubnetOption;
+import nl.sidnlabs.dnslib.message.records.edns0.DNSSECOption;
+import nl.sidnlabs.dnslib.message.records.edns0.KeyTagOption;
+import nl.sidnlabs.dnslib.message.records.edns0.NSidOption;
+import nl.sidnlabs.dnslib.message.records.edns0.OPTResourceRecord;
+import nl.sidnlabs.dnslib.message.records.edns0.PaddingOption;
+import nl.sidnlabs.dnslib.message.records.edns0.PingOption;
+import nl.sidnlabs.dnslib.types.MessageType;
+import nl.sidnlabs.dnslib.types.ResourceRecordType;
 import nl.sidnlabs.entrada.ServerContext;
+import nl.sidnlabs.entrada.config.ServerScope;
 import nl.sidnlabs.entrada.exception.ApplicationException;
-
+import nl.sidnlabs.entrada.metric.AvgMetric;
+import nl.sidnlabs.entrada.metric.SumMetric;
+import nl.sidnlabs.entrada.support.RequestCacheKey;
+import nl.sidnlabs.entrada.support.RequestCacheValue;
+import nl.sidnlabs.pcap.packet.DNSPacket;
+import nl.sidnlabs.pcap.packet.Datagram;
+import nl.sidnlabs.pcap.packet.DatagramPayload;
+import nl.sidnlabs.pcap.packet.FlowData;
+import nl.sidnlabs.pcap.packet.ICMPPacket;
+import nl.sidnlabs.pcap.packet.Packet;
+import nl.sidnlabs.pcap.packet.TCPFlow;
+
+/**
+ * Saves the state of the decoders, joiners and metrics to a file in the persistence location.
+ *
+ * The state is serialized in memory by the calling thread and only the bytes are written to disk by
+ * a background thread, the data is first written to a temporary file which is then renamed. A
+ * crash while writing never leaves a partially written state file behind, and reading the state
+ * waits for a pending write. A failed write is thrown by the next call that waits for the write.
+ */
 @Log4j2
 @Component
+@Scope(ServerScope.NAME)
 public class StateManager {
 
   private static final String DECODER_STATE_FILE = "pcap-decoder-state";
-  private static final Kryo KRYO = new Kryo();
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // registered classes are written using a numeric id instead of the class name. The ids are part
+  // of the state file format, new classes must be added to the end of the list. Classes that are
+  // not in the list are still written using the class name.
+  private static final int FIRST_CLASS_ID = 100;
+  private static final Class<?>[] CLASSES = {HashMap.class, TreeMap.class,
+      ConcurrentHashMap.class, ArrayList.class, byte[].class, TCPFlow.class, FlowData.class,
+      Datagram.class, DatagramPayload.class, Packet.class, DNSPacket.class, ICMPPacket.class,
+      Message.class, Header.class, Question.class, MessageType.class, ResourceRecordType.class,
+      OPTResourceRecord.class, ClientSubnetOption.class, DNSSECOption.class, KeyTagOption.class,
+      NSidOption.class, PaddingOption.class, PingOption.class, RequestCacheKey.class,
+      RequestCacheValue.class, SumMetric.class, AvgMetric.class};
+
+  // Kryo is not thread safe, use an instance for each name server
+  private final Kryo kryo = new Kryo();
+  // single thread writing the state files, the thread is stopped when idle
+  private final ThreadPoolExecutor writer = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(),
+      new ThreadFactoryBuilder().setNameFormat("entrada-state-%d").build());
 
   private Output output = null;
   private Input input = null;
+  private Future<?> pendingWrite;
 
   @Value("${entrada.location.persistence}")
   private String workLocation;
@@ -33,7 +98,10 @@ public class StateManager {
   public StateManager(ServerContext ctx) {
     this.ctx = ctx;
 
-    KRYO.setRegistrationRequired(false);
+    kryo.setRegistrationRequired(false);
+    for (int i = 0; i < CLASSES.length; i++) {
+      kryo.register(CLASSES[i], FIRST_CLASS_ID + i);
+    }
   }
 
   private String createStateFileName() {
@@ -42,15 +110,8 @@ public class StateManager {
 
   public void write() {
     if (output == null) {
-      String f = createStateFileName();
-      if (log.isDebugEnabled()) {
-        log.debug("Create KRYO output linked to file {}", f);
-      }
-      try {
-        output = new Output(new FileOutputStream(f));
-      } catch (Exception e) {
-        throw new ApplicationException("Cannot create state file: " + f, e);
-      }
+      // buffer grows as needed, the bytes are written to file when the manager is closed
+      output = new Output(BUFFER_SIZE, -1);
     }
   }
 
@@ -59,7 +120,7 @@ public class StateManager {
       write();
     }
 
-    KRYO.writeClassAndObject(output, data);
+    kryo.writeClassAndObject(output, data);
   }
 
   public Object readObject() {
@@ -68,7 +129,7 @@ public class StateManager {
     }
 
     try {
-      return KRYO.readClassAndObject(input);
+      return kryo.readClassAndObject(input);
     } catch (Exception e) {
       log.error("Cannot read state", e);
     }
@@ -82,12 +143,14 @@ public class StateManager {
    */
   public void read() {
     if (input == null) {
+      awaitWrite();
+
       String f = createStateFileName();
       if (log.isDebugEnabled()) {
         log.debug("Create KRYO input linked to file {}", f);
       }
       try {
-        input = new Input(new FileInputStream(f));
+        input = new Input(new FileInputStream(f), BUFFER_SIZE);
       } catch (Exception e) {
         log.error("Cannot read state file: " + f, e);
       }
@@ -95,10 +158,17 @@ public class StateManager {
   }
 
   public boolean stateAvailable() {
-    return new File(createStateFileName()).exists();
+    awaitWrite();
+    return Files.exists(Paths.get(createStateFileName()));
   }
 
+  /**
+   * Delete the state file, state that has been written but not yet saved is discarded.
+   */
   public void delete() {
+    output = null;
+    awaitWrite();
+
     try {
       Files.deleteIfExists(Paths.get(createStateFileName()));
     } catch (IOException e) {
@@ -106,6 +176,10 @@ public class StateManager {
     }
   }
 
+  /**
+   * Close the input and save the state that has been written, the state file is written in the
+   * background.
+   */
   public void close() {
     if (input != null) {
       input.close();
@@ -113,9 +187,67 @@ public class StateManager {
     }
 
     if (output != null) {
-      output.flush();
-      output.close();
+      byte[] data = output.toBytes();
       output = null;
+
+      awaitWrite();
+      Path file = Paths.get(createStateFileName());
+      pendingWrite = writer.submit(() -> save(file, data));
+    }
+  }
+
+  private void save(Path file, byte[] data) {
+    long start = System.currentTimeMillis();
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      Files.write(tmp, data);
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new ApplicationException("Cannot create state file: " + file, e);
+    }
+
+    if (log.isDebugEnabled()) {
+      log
+          .debug("Saved {} bytes to state file {} in {}ms", data.length, file,
+              System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Wait for the last state to be written and stop the writer thread, called when the beans of the
+   * name server are destroyed.
+   */
+  @PreDestroy
+  public void shutdown() {
+    try {
+      awaitWrite();
+    } finally {
+      writer.shutdown();
+    }
+  }
+
+  /**
+   * Wait until the previous state has been written to file
+   *
+   * @throws ApplicationException when the previous state could not be written
+   */
+  private void awaitWrite() {
+    if (pendingWrite == null) {
+      return;
+    }
+
+    try {
+      pendingWrite.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ApplicationException("Interrupted while writing state file", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ApplicationException) {
+        throw (ApplicationException) e.getCause();
+      }
+      throw new ApplicationException("Error while writing state file", e.getCause());
+    } finally {
+      pendingWrite = null;
     }
   }
 
@@ -0,0 +1,72 @@
+package nl.sidnlabs.entrada.load;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters for the stages of the processing stream, each meter is tagged with the server, the stage
+ * name and the instance number of the stage (e.g. the decoder number).
+ *
+ * PacketProcessor is a prototype bean and the stream is recreated for each run, the queue
+ * depth counters are kept here so the gauges keep pointing to the counters used by the current
+ * stream.
+ */
+@Component
+public class StreamStageMetrics {
+
+  public static final String METRIC_STAGE_TIME = "entrada.stream.stage.time";
+  public static final String METRIC_STAGE_QUEUE = "entrada.stream.stage.queue";
+  public static final String METRIC_STAGE_BACKPRESSURE = "entrada.stream.stage.backpressure";
+
+  private final MeterRegistry registry;
+  private final Map<Tags, AtomicInteger> queues = new ConcurrentHashMap<>();
+
+  public StreamStageMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * Timer for the time spent processing a single element by the stage
+   */
+  public Timer timer(String server, String stage, int instance) {
+    return registry.timer(METRIC_STAGE_TIME, tags(server, stage, instance));
+  }
+
+  /**
+   * Counter for the number of elements that arrived while the buffer in front of the stage was
+   * full, a value that keeps increasing means that upstream is backpressured by the stage.
+   */
+  public Counter backpressure(String server, String stage, int instance) {
+    return registry.counter(METRIC_STAGE_BACKPRESSURE, tags(server, stage, instance));
+  }
+
+  /**
+   * Counter for the number of elements waiting in the buffer in front of the stage, the counter is
+   * reset to 0 because a new stream starts with empty buffers.
+   */
+  public AtomicInteger queue(String server, String stage, int instance) {
+    AtomicInteger depth = queues.computeIfAbsent(tags(server, stage, instance), t -> {
+      AtomicInteger d = new AtomicInteger();
+      Gauge
+          .builder(METRIC_STAGE_QUEUE, d, AtomicInteger::get)
+          .tags(t)
+          .strongReference(true)
+          .register(registry);
+      return d;
+    });
+    depth.set(0);
+    return depth;
+  }
+
+  private static Tags tags(String server, String stage, int instance) {
+    return Tags.of("server", server, "stage", stage, "instance", String.valueOf(instance));
+  }
+
+}
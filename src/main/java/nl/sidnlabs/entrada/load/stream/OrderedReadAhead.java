@@ -0,0 +1,100 @@
+package nl.sidnlabs.entrada.load.stream;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.SinkQueueWithCancel;
+import akka.stream.javadsl.Source;
+
+/**
+ * Concatenate sources in their original order, while the sources after the current source are
+ * already running. Each source that is read ahead runs on its own and buffers its elements until
+ * it becomes the current source, so the elements of all sources are emitted in the same order as
+ * when the sources are read one after the other. The sources that are read ahead are cancelled
+ * when the flow stops.
+ */
+public class OrderedReadAhead {
+
+  private static final int GROUP_SIZE = 256;
+
+  private OrderedReadAhead() {}
+
+  /**
+   * Create flow that emits the elements of the sources in order
+   *
+   * @param sources max number of sources running at the same time, 1 means no read ahead
+   * @param buffer max number of elements buffered for each source that is read ahead
+   * @return flow with the elements of all sources
+   */
+  public static <T> Flow<Source<T, NotUsed>, T, NotUsed> flow(int sources, int buffer) {
+    return flow(s -> s, s -> {}, sources, buffer);
+  }
+
+  /**
+   * Create flow that emits the elements of the sources created for the inputs in order
+   *
+   * @param source creates the source for an input
+   * @param done called when the source of the input completes, in the order of the inputs
+   * @param sources max number of sources running at the same time, 1 means no read ahead
+   * @param buffer max number of elements buffered for each source that is read ahead
+   * @return flow with the elements of all sources
+   */
+  public static <I, T> Flow<I, T, NotUsed> flow(Function<I, Source<T, NotUsed>> source,
+      Consumer<I> done, int sources, int buffer) {
+
+    if (sources == 1) {
+      return Flow.<I>create().flatMapConcat(i -> whenDone(source.apply(i), () -> done.accept(i)));
+    }
+
+    // start the source with the materializer of the flow when it enters the buffer, the source
+    // backpressures when its queue is full and continues when the queue is pulled by
+    // flatMapConcat. The elements are queued in groups so the queue is not pulled for each element.
+    int groups = Math.max(1, buffer / GROUP_SIZE);
+    return Flow.<I, T, NotUsed>fromMaterializer((mat, attr) -> {
+      // the queues of the sources that have been started and are not done yet
+      Set<SinkQueueWithCancel<List<T>>> queues = ConcurrentHashMap.newKeySet();
+
+      return Flow
+          .<I>create()
+          .map(i -> {
+            SinkQueueWithCancel<List<T>> q = source
+                .apply(i)
+                .grouped(GROUP_SIZE)
+                .buffer(groups, OverflowStrategy.backpressure())
+                .toMat(Sink.<List<T>>queue(), Keep.right())
+                .run(mat);
+            queues.add(q);
+            return Pair.create(i, q);
+          })
+          .buffer(sources - 1, OverflowStrategy.backpressure())
+          .flatMapConcat(p -> whenDone(Source
+              .unfoldAsync(p.second(),
+                  s -> s.pull().thenApply(o -> o.map(e -> Pair.create(s, e))))
+              .mapConcat(e -> e), () -> {
+                queues.remove(p.second());
+                done.accept(p.first());
+              }))
+          .watchTermination((m, terminated) -> {
+            // the sources that are read ahead keep running when the flow fails or is cancelled
+            terminated.whenComplete((d, e) -> queues.forEach(SinkQueueWithCancel::cancel));
+            return m;
+          });
+    }).mapMaterializedValue(m -> NotUsed.getInstance());
+  }
+
+  private static <T> Source<T, NotUsed> whenDone(Source<T, NotUsed> source, Runnable done) {
+    return source.watchTermination((m, terminated) -> {
+      terminated.thenRun(done);
+      return m;
+    });
+  }
+
+}
@@ -3,12 +3,9 @@ package nl.sidnlabs.entrada.load.stream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.PostConstruct;
-
-import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
@@ -19,7 +16,11 @@ import nl.sidnlabs.dnslib.message.Message;
 import nl.sidnlabs.dnslib.types.MessageType;
 import nl.sidnlabs.dnslib.types.ResourceRecordType;
 import nl.sidnlabs.entrada.load.PacketJoiner;
+import nl.sidnlabs.entrada.metric.HotPathMetrics;
+import nl.sidnlabs.entrada.metric.HotPathMetrics.Meter;
+import nl.sidnlabs.entrada.metric.HotPathMetrics.Recorder;
 import nl.sidnlabs.entrada.support.RequestCacheKey;
+import nl.sidnlabs.entrada.support.RequestCacheTable;
 import nl.sidnlabs.entrada.support.RequestCacheValue;
 import nl.sidnlabs.entrada.support.RowData;
 import nl.sidnlabs.pcap.packet.DNSPacket;
@@ -35,15 +36,19 @@ import nl.sidnlabs.pcap.packet.PacketFactory;
 @Scope(value = ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 public class PacketJoinerImpl implements PacketJoiner {
 
+  private static final int INITIAL_CACHE_SIZE = 16 * 1024;
+
   @Value("${entrada.icmp.enable}")
   private boolean icmpEnabled;
   @Value("${entrada.cache.timeout:2}")
   private int cacheTimeoutConfig;
 
-  private Map<RequestCacheKey, RequestCacheValue> requestCache = new HashMap<>();
+  private RequestCacheTable requestCache;
   // keep list of active zone transfers
   private Map<RequestCacheKey, Integer> activeZoneTransfers = new HashMap<>();
 
+  // highest packet time seen, queries older than this - timeout are expired. The files are read
+  // in order, it never moves back when a packet has an older timestamp.
   private long lastPacketTs = 0;
   private int cacheTimeout;
   // stats counters
@@ -52,15 +57,16 @@ public class PacketJoinerImpl implements PacketJoiner {
   private int requestPacketCounter = 0;
   private int responsePacketCounter = 0;
 
-  private final MeterRegistry registry;
+  private final Recorder metrics;
 
-  public PacketJoinerImpl(MeterRegistry registry) {
-    this.registry = registry;
+  public PacketJoinerImpl(HotPathMetrics metrics) {
+    this.metrics = metrics.recorder();
   }
 
   @PostConstruct
   private void init() {
     this.cacheTimeout = cacheTimeoutConfig * 1000;
+    this.requestCache = new RequestCacheTable(INITIAL_CACHE_SIZE, cacheTimeout);
   }
 
   public List<RowData> join(Packet p) {
@@ -76,7 +82,7 @@ public class PacketJoinerImpl implements PacketJoiner {
     }
 
     counter++;
-    registry.counter("entrada.pcap.packets.processed").increment();
+    metrics.increment(Meter.PCAP_PACKETS);
 
     if (counter % 100000 == 0) {
       log.info("Received {} packets to join", Integer.valueOf(counter));
@@ -102,7 +108,9 @@ public class PacketJoinerImpl implements PacketJoiner {
         return Collections.emptyList();
       }
 
-      lastPacketTs = p.getTsMilli();
+      if (p.getTsMilli() > lastPacketTs) {
+        lastPacketTs = p.getTsMilli();
+      }
 
       List<RowData> results = new ArrayList<>();
       for (Message msg : dnsPacket.getMessages()) {
@@ -120,6 +128,9 @@ public class PacketJoinerImpl implements PacketJoiner {
       // clear the packet which may contain many dns messages
       dnsPacket.clear();
 
+      // use time from pcap to expire queries without a response
+      expire(lastPacketTs - cacheTimeout, results);
+
 
       return results;
     } // end of dns packet
@@ -132,7 +143,7 @@ public class PacketJoinerImpl implements PacketJoiner {
 
   private void handDnsRequest(DNSPacket dnsPacket, Message msg, String fileName) {
     requestPacketCounter++;
-    registry.counter("entrada.dns.packets.requests").increment();
+    metrics.increment(Meter.DNS_REQUESTS);
     // check for ixfr/axfr request
     if (!msg.getQuestions().isEmpty()
         && (msg.getQuestions().get(0).getQType() == ResourceRecordType.AXFR
@@ -148,27 +159,30 @@ public class PacketJoinerImpl implements PacketJoiner {
               dnsPacket.getSrcPort(), 0), Integer.valueOf(0));
     }
 
-    RequestCacheKey key = new RequestCacheKey(msg.getHeader().getId(), qname(msg),
-        dnsPacket.getSrc(), dnsPacket.getSrcPort(), dnsPacket.getTsMilli());
-
     if (log.isDebugEnabled()) {
-      log.info("Insert into cache key: " + key);
+      log
+          .debug("Insert into cache id: {} qname: {} src: {} port: {}",
+              Integer.valueOf(msg.getHeader().getId()), qname(msg), dnsPacket.getSrc(),
+              Integer.valueOf(dnsPacket.getSrcPort()));
     }
 
     // put the query in the cache until we get a matching response
-    requestCache.put(key, new RequestCacheValue(msg, dnsPacket));
+    requestCache
+        .put(msg.getHeader().getId(), dnsPacket.getSrcPort(), dnsPacket.getSrc(), qname(msg),
+            dnsPacket.getTsMilli(), msg, dnsPacket);
   }
 
   private RowData handDnsResponse(DNSPacket dnsPacket, Message msg, String fileName) {
     responsePacketCounter++;
-    registry.counter("entrada.dns.packets.responses").increment();
+    metrics.increment(Meter.DNS_RESPONSES);
     // try to find the request
 
     // check for ixfr/axfr response, the query might be missing from the response
     // so we cannot use the qname for matching.
-    RequestCacheKey key = new RequestCacheKey(msg.getHeader().getId(), null, dnsPacket.getDst(),
-        dnsPacket.getDstPort(), 0);
-    if (activeZoneTransfers.containsKey(key)) {
+    RequestCacheKey key = activeZoneTransfers.isEmpty() ? null
+        : new RequestCacheKey(msg.getHeader().getId(), null, dnsPacket.getDst(),
+            dnsPacket.getDstPort(), 0);
+    if (key != null && activeZoneTransfers.containsKey(key)) {
       if (log.isDebugEnabled()) {
         log.debug("Ignore {} zone transfer response(s)", Integer.valueOf(msg.getAnswer().size()));
       }
@@ -187,22 +201,30 @@ public class PacketJoinerImpl implements PacketJoiner {
     }
     String qname = qname(msg);
 
-    key = new RequestCacheKey(msg.getHeader().getId(), qname, dnsPacket.getDst(),
-        dnsPacket.getDstPort(), 0);
-
     if (log.isDebugEnabled()) {
-      log.debug("Get from cache key: " + key);
+      log
+          .debug("Get from cache id: {} qname: {} dst: {} port: {}",
+              Integer.valueOf(msg.getHeader().getId()), qname, dnsPacket.getDst(),
+              Integer.valueOf(dnsPacket.getDstPort()));
       log.debug("request cache size before: " + requestCache.size());
     }
 
-    RequestCacheValue request = requestCache.remove(key);
+    int entry = requestCache
+        .find(msg.getHeader().getId(), dnsPacket.getDstPort(), dnsPacket.getDst(), qname);
+    Packet reqPacket = null;
+    Message reqMessage = null;
+    if (entry != RequestCacheTable.NO_ENTRY) {
+      reqPacket = requestCache.packet(entry);
+      reqMessage = requestCache.message(entry);
+      requestCache.remove(entry);
+    }
     // check to see if the request msg exists, at the start of the pcap there may be
     // missing queries
     if (log.isDebugEnabled()) {
       log.debug("request cache size after: " + requestCache.size());
     }
 
-    if (request != null && request.getPacket() != null && request.getMessage() != null) {
+    if (reqPacket != null && reqMessage != null) {
 
       matchedCounter++;
       if (matchedCounter % 100000 == 0) {
@@ -210,7 +232,7 @@ public class PacketJoinerImpl implements PacketJoiner {
       }
 
       // pushRow(
-      return new RowData(request.getPacket(), request.getMessage(), dnsPacket, msg, false);
+      return new RowData(reqPacket, reqMessage, dnsPacket, msg, false);
       // );
 
     } else {
@@ -255,51 +277,46 @@ public class PacketJoinerImpl implements PacketJoiner {
     log.info("{} request cache size: ", Integer.valueOf(requestCache.size()));
   }
 
+  /**
+   * Create a copy of the request cache, used for persisting the state of the joiner.
+   */
   public Map<RequestCacheKey, RequestCacheValue> getRequestCache() {
-    return requestCache;
+    Map<RequestCacheKey, RequestCacheValue> cache = new HashMap<>(requestCache.size() * 2);
+
+    for (int e = 0; e < requestCache.limit(); e++) {
+      if (requestCache.isUsed(e)) {
+        cache
+            .put(
+                new RequestCacheKey(requestCache.id(e), requestCache.qname(e), requestCache.src(e),
+                    requestCache.port(e), requestCache.time(e)),
+                new RequestCacheValue(requestCache.message(e), requestCache.packet(e)));
+      }
+    }
+
+    return cache;
   }
 
-  public void setRequestCache(Map<RequestCacheKey, RequestCacheValue> requestCache) {
-    this.requestCache = requestCache;
+  public void setRequestCache(Map<RequestCacheKey, RequestCacheValue> cache) {
+    requestCache.clear();
+
+    for (Map.Entry<RequestCacheKey, RequestCacheValue> entry : cache.entrySet()) {
+      RequestCacheKey key = entry.getKey();
+      requestCache
+          .put(key.getId(), key.getSrcPort(), key.getSrc(), key.getQname(), key.getTime(),
+              entry.getValue().getMessage(), entry.getValue().getPacket());
+    }
   }
 
 
   private List<RowData> purge() {
     // remove expired entries from requestCache
-    Iterator<RequestCacheKey> iter = requestCache.keySet().iterator();
     // use time from pcap to calc max age of cached packets
     long max = lastPacketTs - cacheTimeout;
-    int purgeCounter = 0;
     int oldSize = requestCache.size();
 
     List<RowData> expired = new ArrayList<>();
-
-    while (iter.hasNext()) {
-      RequestCacheKey key = iter.next();
-      // add the expiration time to the key and see if this leads to a time which is after the
-      // current time.
-      if (key.getTime() < max) {
-        // remove expired request
-        RequestCacheValue cacheValue = requestCache.get(key);
-        iter.remove();
-
-        if (cacheValue.getMessage() != null && !cacheValue.getMessage().getQuestions().isEmpty()
-            && cacheValue.getMessage().getHeader().getQr() == MessageType.QUERY) {
-
-          expired
-              .add(new RowData(cacheValue.getPacket(), cacheValue.getMessage(), null, null, true));
-
-
-          if (log.isDebugEnabled()) {
-            log
-                .debug("Expired query for: "
-                    + cacheValue.getMessage().getQuestions().get(0).getQName());
-          }
-          purgeCounter++;
-          registry.counter("entrada.dns.packets.expired").increment();
-        }
-      }
-    }
+    int purgeCounter = expire(max, expired);
+    metrics.flush();
 
     log.info("-------------- Joiner Cache Purge Stats ------------------");
     log.info("Size before: {}", Integer.valueOf(oldSize));
@@ -312,6 +329,40 @@ public class PacketJoinerImpl implements PacketJoiner {
     return expired;
   }
 
+  /**
+   * Remove the requests that are older than max, the timing wheel of the request cache only visits
+   * the expired requests. Expired queries are added to the results as rows without a response.
+   * 
+   * @param max requests older than max are expired
+   * @param results list to add the expired queries to
+   * @return number of expired queries
+   */
+  private int expire(long max, List<RowData> results) {
+    int expiredCounter = 0;
+
+    for (int e = requestCache.nextExpired(max); e != RequestCacheTable.NO_ENTRY; e =
+        requestCache.nextExpired(max)) {
+      // remove expired request
+      Message message = requestCache.message(e);
+      Packet packet = requestCache.packet(e);
+      requestCache.remove(e);
+
+      if (message != null && !message.getQuestions().isEmpty()
+          && message.getHeader().getQr() == MessageType.QUERY) {
+
+        results.add(new RowData(packet, message, null, null, true));
+
+        if (log.isDebugEnabled()) {
+          log.debug("Expired query for: " + message.getQuestions().get(0).getQName());
+        }
+        expiredCounter++;
+        metrics.increment(Meter.DNS_EXPIRED);
+      }
+    }
+
+    return expiredCounter;
+  }
+
   @Override
   public void reset() {
     counter = 0;
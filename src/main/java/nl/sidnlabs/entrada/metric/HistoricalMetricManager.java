@@ -19,24 +19,25 @@
  */
 package nl.sidnlabs.entrada.metric;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
-import com.codahale.metrics.graphite.Graphite;
-import com.codahale.metrics.graphite.GraphiteSender;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import nl.sidnlabs.entrada.ServerContext;
+import nl.sidnlabs.entrada.config.ServerScope;
 import nl.sidnlabs.entrada.load.StateManager;
+import nl.sidnlabs.entrada.metric.export.Datapoint;
+import nl.sidnlabs.entrada.metric.export.MetricSender;
 import nl.sidnlabs.entrada.model.BaseMetricValues;
 import nl.sidnlabs.entrada.model.DnsMetricValues;
 import nl.sidnlabs.entrada.model.IcmpMetricValues;
@@ -49,6 +50,7 @@ import nl.sidnlabs.entrada.model.IcmpMetricValues;
  */
 @Log4j2
 @Component
+@Scope(ServerScope.NAME)
 @Getter
 @Setter
 public class HistoricalMetricManager {
@@ -81,36 +83,40 @@ public class HistoricalMetricManager {
   private int metricListCounter = 0;
   private int metricCounter = 0;
 
+  // metrics ready to be sent, the metric values are aggregated in the buckets and moved to the
+  // cache when flushed or persisted.
   private Map<String, TreeMap<Long, Metric>> metricCache = new ConcurrentHashMap<>(1000);
 
-  @Value("${management.metrics.export.graphite.prefix}")
-  private String prefix;
-
-  @Value("${management.metrics.export.graphite.host}")
-  private String host;
-
-  @Value("${management.metrics.export.graphite.port}")
-  private int port;
+  private final MetricBuckets buckets = new MetricBuckets();
+  private final int dnsQuerySlot = buckets.slot(METRIC_IMPORT_DNS_QUERY_COUNT, true);
+  private final int dnsResponseSlot = buckets.slot(METRIC_IMPORT_DNS_RESPONSE_COUNT, true);
+  private final int tcpSlot = buckets.slot(METRIC_IMPORT_TCP_COUNT, true);
+  private final int udpSlot = buckets.slot(METRIC_IMPORT_UDP_COUNT, true);
+  private final int icmpSlot = buckets.slot(METRIC_IMPORT_ICMP_COUNT, true);
+  private final int ipv4Slot = buckets.slot(METRIC_IMPORT_IP_VERSION_4_COUNT, true);
+  private final int ipv6Slot = buckets.slot(METRIC_IMPORT_IP_VERSION_6_COUNT, true);
+  private final int tcpRttSlot = buckets.slot(METRIC_IMPORT_TCP_HANDSHAKE_RTT, false);
+  // rcode is -1 when there is no response
+  private final MetricBuckets.CodeSlots qtypeSlots =
+      buckets.codeSlots(0, 65536, c -> METRIC_IMPORT_DNS_QTYPE + "." + c);
+  private final MetricBuckets.CodeSlots rcodeSlots =
+      buckets.codeSlots(-1, 4096, c -> METRIC_IMPORT_DNS_RCODE + "." + c);
+  private final MetricBuckets.CodeSlots opcodeSlots =
+      buckets.codeSlots(0, 16, c -> METRIC_IMPORT_DNS_OPCODE + "." + c);
+  // 2 letter country codes
+  private final MetricBuckets.CodeSlots countrySlots = buckets
+      .codeSlots(0, 26 * 26,
+          c -> METRIC_IMPORT_COUNTRY_COUNT + "." + (char) ('A' + c / 26) + (char) ('A' + c % 26));
 
   @Value("${management.metrics.export.graphite.retention:60}")
   private int retention;
 
   private ServerContext settings;
+  private MetricSender sender;
 
-  public HistoricalMetricManager(ServerContext settings) {
+  public HistoricalMetricManager(ServerContext settings, MetricSender sender) {
     this.settings = settings;
-  }
-
-  private String createMetricName(String metric) {
-    // replace dot in the server name with underscore otherwise graphite will assume nesting
-
-    return new StringBuilder()
-        .append(prefix)
-        .append(".")
-        .append(metric)
-        .append(".ns.")
-        .append(StringUtils.defaultIfBlank(settings.getServerInfo().getNormalizedName(), "all"))
-        .toString();
+    this.sender = sender;
   }
 
   public void update(BaseMetricValues mv) {
@@ -120,71 +126,80 @@ public class HistoricalMetricManager {
       return;
     }
 
-    Long time = Long.valueOf(roundToRetention(mv.time));
+    long time = roundToRetention(mv.time);
 
     if (mv instanceof IcmpMetricValues) {
-      update(METRIC_IMPORT_ICMP_COUNT, time, 1, true);
+      buckets.add(time, icmpSlot, 1);
 
       return;
     }
 
     DnsMetricValues dmv = (DnsMetricValues) mv;
     if (dmv.dnsQuery) {
-      update(METRIC_IMPORT_DNS_QUERY_COUNT, time, 1, true);
+      buckets.add(time, dnsQuerySlot, 1);
     }
 
     if (dmv.dnsResponse) {
-      update(METRIC_IMPORT_DNS_RESPONSE_COUNT, time, 1, true);
+      buckets.add(time, dnsResponseSlot, 1);
     }
 
-    update(METRIC_IMPORT_DNS_QTYPE + "." + dmv.dnsQtype, time, 1, true);
-    update(METRIC_IMPORT_DNS_RCODE + "." + dmv.dnsRcode, time, 1, true);
-    update(METRIC_IMPORT_DNS_OPCODE + "." + dmv.dnsOpcode, time, 1, true);
-    update(METRIC_IMPORT_COUNTRY_COUNT + "." + dmv.country, time, 1, true);
+    buckets.add(time, qtypeSlots.slot(dmv.dnsQtype), 1);
+    buckets.add(time, rcodeSlots.slot(dmv.dnsRcode), 1);
+    buckets.add(time, opcodeSlots.slot(dmv.dnsOpcode), 1);
+    buckets.add(time, countrySlot(dmv.country), 1);
 
     if (dmv.ProtocolUdp) {
-      update(METRIC_IMPORT_UDP_COUNT, time, 1, true);
+      buckets.add(time, udpSlot, 1);
     } else {
-      update(METRIC_IMPORT_TCP_COUNT, time, 1, true);
+      buckets.add(time, tcpSlot, 1);
       if (dmv.tcpHandshake != -1) {
-        update(METRIC_IMPORT_TCP_HANDSHAKE_RTT, time, dmv.tcpHandshake, false);
+        buckets.addSample(time, tcpRttSlot, dmv.tcpHandshake);
       }
     }
 
     if (dmv.ipV4) {
-      update(METRIC_IMPORT_IP_VERSION_4_COUNT, time, 1, true);
+      buckets.add(time, ipv4Slot, 1);
     } else {
-      update(METRIC_IMPORT_IP_VERSION_6_COUNT, time, 1, true);
+      buckets.add(time, ipv6Slot, 1);
     }
   }
 
-  private void update(String name, Long time, int value, boolean counter) {
+  private int countrySlot(String country) {
+    if (country != null && country.length() == 2 && isUpper(country.charAt(0))
+        && isUpper(country.charAt(1))) {
+      return countrySlots.slot((country.charAt(0) - 'A') * 26 + country.charAt(1) - 'A');
+    }
+    // unknown or unexpected country code
+    return buckets.slot(METRIC_IMPORT_COUNTRY_COUNT + "." + country, true);
+  }
 
-    TreeMap<Long, Metric> metricValues = metricCache.get(name);
+  private static boolean isUpper(char c) {
+    return c >= 'A' && c <= 'Z';
+  }
 
-    if (metricValues == null) {
-      // create new treemap
-      metricValues = new TreeMap<>();
-      Metric m = createMetric(name, value, time.longValue(), counter);
-      metricValues.put(time, m);
-      metricCache.put(m.getName(), metricValues);
-    } else {
+  /**
+   * Move the values aggregated in the buckets to the metric cache.
+   */
+  private void drain() {
+    buckets.drain(this::update);
+  }
 
-      Metric mHist = metricValues.get(time);
-      if (mHist != null) {
-        mHist.update(value);
-      } else {
-        Metric m = createMetric(name, value, time.longValue(), counter);
-        metricValues.put(time, m);
-      }
+  private void update(String name, boolean counter, long time, long value, int samples) {
+    TreeMap<Long, Metric> metricValues = metricCache.computeIfAbsent(name, k -> new TreeMap<>());
+
+    Metric m = metricValues.get(Long.valueOf(time));
+    if (m == null) {
+      m = createMetric(name, time, counter);
+      metricValues.put(Long.valueOf(time), m);
     }
+    m.update(value, samples);
   }
 
-  public static Metric createMetric(String metric, int value, long timestamp, boolean counter) {
-    if (counter) {
-      return new SumMetric(metric, value, timestamp);
-    }
-    return new AvgMetric(metric, value, timestamp);
+  public static Metric createMetric(String metric, long timestamp, boolean counter) {
+    SumMetric m = counter ? new SumMetric() : new AvgMetric();
+    m.setName(metric);
+    m.setTime(timestamp);
+    return m;
   }
 
   private long roundToRetention(long millis) {
@@ -197,15 +212,18 @@ public class HistoricalMetricManager {
    * Uses a threshhold to determine if the value should be sent to graphite low values may indicate
    * trailing queries in later pcap files. duplicate timestamps get overwritten by graphite and only
    * the last timestamp value is used by graphite.
+   * 
+   * The metrics are sent by the sender using a background thread.
    */
   public void flush() {
-    log.info("Flushing metrics to Graphite, size: {}", metricCache.size());
+    log.info("Flushing metrics, size: {}", metricCache.size());
 
     if (!metricsEnabled) {
       // do nothing
       return;
     }
 
+    drain();
     int oldSize = metricCache.size();
 
     metricCache
@@ -213,27 +231,15 @@ public class HistoricalMetricManager {
         .stream()
         .forEach(e -> log.info("Metric: {}  datapoints: {}", e.getKey(), e.getValue().size()));
 
-    GraphiteSender graphite = new Graphite(host, port);
-    try {
-      graphite.connect();
-      // send each metrics to graphite
-      metricCache.entrySet().stream().map(Entry::getValue).forEach(m -> send(graphite, m));
-    } catch (Exception e) {
-      // cannot connect connect to graphite
-      log.error("Could not connect to Graphite", e);
-    } finally {
-      // remove sent metric, avoiding sending them again.
-      metricCache.values().stream().forEach(this::trunc);
-      // check if any metric has an empty list of time-buckets, if so the list
-      metricCache.entrySet().removeIf(e -> e.getValue().size() == 0);
-
-      try {
-        // close will also do a flush
-        graphite.close();
-      } catch (Exception e) {
-        // ignore
-      }
-    }
+    List<Datapoint> datapoints = new ArrayList<>();
+    metricCache.values().stream().forEach(m -> datapoints(m, datapoints));
+
+    // remove sent metric, avoiding sending them again.
+    metricCache.values().stream().forEach(this::trunc);
+    // check if any metric has an empty list of time-buckets, if so the list
+    metricCache.entrySet().removeIf(e -> e.getValue().size() == 0);
+
+    sender.send(datapoints);
 
     int newSize = metricCache.size();
 
@@ -245,6 +251,7 @@ public class HistoricalMetricManager {
 
   public void clear() {
     metricCache = new ConcurrentHashMap<>(1000);
+    buckets.clear();
   }
 
   private void trunc(TreeMap<Long, Metric> metricValues) {
@@ -257,7 +264,7 @@ public class HistoricalMetricManager {
     toDelete.stream().forEach(metricValues::remove);
   }
 
-  private void send(GraphiteSender graphite, TreeMap<Long, Metric> metricValues) {
+  private void datapoints(TreeMap<Long, Metric> metricValues, List<Datapoint> datapoints) {
     // do not send the last timestamp to prevent duplicate timestamp
     // being sent to graphite. (only the last will count) and will cause dips in charts
     int limit = metricValues.size() - 1;
@@ -265,10 +272,14 @@ public class HistoricalMetricManager {
       // no metrics to send
       return;
     }
-    metricValues.entrySet().stream().limit(limit).forEach(e -> send(graphite, e.getValue()));
+    metricValues
+        .entrySet()
+        .stream()
+        .limit(limit)
+        .forEach(e -> datapoint(e.getValue(), datapoints));
   }
 
-  private void send(GraphiteSender graphite, Metric m) {
+  private void datapoint(Metric m, List<Datapoint> datapoints) {
     if (m.isCached() && !m.isUpdated()) {
       // old cached metric from previous run, was not updated this run
       // most likely due to wrong order in pcaps.
@@ -276,21 +287,20 @@ public class HistoricalMetricManager {
       return;
     }
 
-    String fqMetricName = createMetricName(m.getName());
-    try {
-      graphite.send(fqMetricName, String.valueOf(m.getValue()), m.getTime());
-      if (m instanceof AvgMetric) {
-        graphite
-            .send(StringUtils.replace(fqMetricName, ".avg", ".samples"),
-                String.valueOf(m.getSamples()), m.getTime());
-      }
-    } catch (IOException e) {
-      log.error("Error while sending metric: {}", m, e);
+    // replace dot in the server name with underscore otherwise graphite will assume nesting
+    String server =
+        StringUtils.defaultIfBlank(settings.getServerInfo().getNormalizedName(), "all");
+    datapoints.add(new Datapoint(m.getName(), server, m.getValue(), m.getTime()));
+    if (m instanceof AvgMetric) {
+      datapoints
+          .add(new Datapoint(StringUtils.replace(m.getName(), ".avg", ".samples"), server,
+              m.getSamples(), m.getTime()));
     }
   }
 
 
   public void persistState(StateManager stateManager) {
+    drain();
     for (Map.Entry<String, TreeMap<Long, Metric>> e : metricCache.entrySet()) {
       for (Map.Entry<Long, Metric> metric : e.getValue().entrySet()) {
         metric.getValue().setCached();
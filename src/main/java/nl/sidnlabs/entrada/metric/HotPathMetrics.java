@@ -0,0 +1,83 @@
+package nl.sidnlabs.entrada.metric;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+
+/**
+ * Counters that are updated for every packet or row. The counters are registered once, the
+ * stream operators count using their own {@link Recorder} and only add the counts to the shared
+ * counters once every {@value #FLUSH_SIZE} updates and when done, so counting a packet does not
+ * need a registry lookup or an update of memory shared with other threads.
+ */
+@Component
+public class HotPathMetrics {
+
+  // number of updates a recorder keeps before adding them to the shared counters
+  public static final int FLUSH_SIZE = 1024;
+
+  public enum Meter {
+    PCAP_PACKETS("entrada.pcap.packets.processed"),
+    DNS_REQUESTS("entrada.dns.packets.requests"),
+    DNS_RESPONSES("entrada.dns.packets.responses"),
+    DNS_EXPIRED("entrada.dns.packets.expired"),
+    DNS_ROWS("entrada.dns.packets.processed"),
+    ICMP_ROWS("entrada.icmp.packets.processed");
+
+    @Getter
+    private final String name;
+
+    Meter(String name) {
+      this.name = name;
+    }
+  }
+
+  private final LongAdder[] totals = new LongAdder[Meter.values().length];
+
+  public HotPathMetrics(MeterRegistry registry) {
+    for (Meter m : Meter.values()) {
+      LongAdder total = new LongAdder();
+      totals[m.ordinal()] = total;
+      FunctionCounter.builder(m.getName(), total, LongAdder::doubleValue).register(registry);
+    }
+  }
+
+  /**
+   * Create a new recorder, a recorder is not thread safe and must be used by a single stream
+   * operator only.
+   */
+  public Recorder recorder() {
+    return new Recorder();
+  }
+
+  public class Recorder {
+
+    private final long[] counts = new long[totals.length];
+    private int pending;
+
+    private Recorder() {}
+
+    public void increment(Meter m) {
+      counts[m.ordinal()]++;
+      if (++pending == FLUSH_SIZE) {
+        flush();
+      }
+    }
+
+    /**
+     * Add the counts of this recorder to the shared counters
+     */
+    public void flush() {
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) {
+          totals[i].add(counts[i]);
+          counts[i] = 0;
+        }
+      }
+      pending = 0;
+    }
+  }
+
+}
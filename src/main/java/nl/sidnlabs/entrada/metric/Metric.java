@@ -4,6 +4,14 @@ public interface Metric {
 
   void update(int value);
 
+  /**
+   * Add the aggregated value of multiple samples
+   * 
+   * @param value sum of the sample values
+   * @param samples number of samples
+   */
+  void update(long value, int samples);
+
   /**
    * sample-size for calculated value
    * 
@@ -0,0 +1,258 @@
+package nl.sidnlabs.entrada.metric;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Lock-free aggregation of metric values per time bucket, safe to update from multiple threads.
+ *
+ * Every metric name gets a slot number when first used, the slots for metrics with a numeric code
+ * (qtype, rcode etc) are found using an array index, so no metric name has to be created when a
+ * metric is updated. Each time bucket has a counter for every slot, the counters are allocated in
+ * chunks when the first slot of a chunk is used.
+ *
+ * Buckets can be drained while they are updated. A bucket is removed after two drains without new
+ * values. Writers are counted while adding a value to a bucket, drain waits for the writers of a
+ * removed bucket before its last drain. A writer that finds the bucket removed gets the bucket for
+ * the time from the map again.
+ */
+@Log4j2
+public class MetricBuckets {
+
+  private static final int CHUNK_BITS = 8;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int MAX_SLOTS = 128 * 1024;
+
+  /**
+   * Receives the aggregated values when the buckets are drained
+   */
+  public interface Sink {
+    void metric(String name, boolean counter, long time, long value, int samples);
+  }
+
+  private final List<String> names = new CopyOnWriteArrayList<>();
+  private final List<Boolean> counters = new CopyOnWriteArrayList<>();
+  private final Map<String, Integer> slotsByName = new ConcurrentHashMap<>();
+
+  private final Map<Long, Bucket> buckets = new ConcurrentHashMap<>();
+  // most metric values are for the same time bucket, avoid map lookup
+  private volatile Bucket current;
+
+  /**
+   * Get the slot for the metric name, a new slot is created if the name is not used before.
+   *
+   * @param name metric name
+   * @param counter true for a sum metric, false for an average
+   * @return slot number or -1 when the max number of slots has been reached
+   */
+  public int slot(String name, boolean counter) {
+    Integer slot = slotsByName.get(name);
+    if (slot != null) {
+      return slot.intValue();
+    }
+    return allocate(name, counter);
+  }
+
+  private synchronized int allocate(String name, boolean counter) {
+    Integer slot = slotsByName.get(name);
+    if (slot == null) {
+      if (names.size() == MAX_SLOTS) {
+        log.error("Max number of metrics reached, ignoring metric: {}", name);
+        return -1;
+      }
+
+      slot = Integer.valueOf(names.size());
+      names.add(name);
+      counters.add(Boolean.valueOf(counter));
+      slotsByName.put(name, slot);
+    }
+    return slot.intValue();
+  }
+
+  /**
+   * Create index for sum metrics with a numeric code, codes in the range [min, max) are looked up
+   * using an array. For other codes the slot is found using the metric name.
+   *
+   * @param min lowest code in the array
+   * @param max highest code (exclusive) in the array
+   * @param name creates the metric name for a code
+   */
+  public CodeSlots codeSlots(int min, int max, IntFunction<String> name) {
+    return new CodeSlots(min, max, name);
+  }
+
+  public void add(long time, int slot, int value) {
+    if (slot >= 0) {
+      add(time, slot, value, false);
+    }
+  }
+
+  /**
+   * Add a sample for an average metric
+   */
+  public void addSample(long time, int slot, int value) {
+    if (slot >= 0) {
+      add(time, slot, value, true);
+    }
+  }
+
+  private void add(long time, int slot, int value, boolean sample) {
+    while (true) {
+      Bucket b = bucket(time);
+      // register as writer before checking removed, drain sets removed before waiting for writers
+      b.writers.incrementAndGet();
+      try {
+        if (!b.removed) {
+          b.add(slot, value, sample);
+          return;
+        }
+      } finally {
+        b.writers.decrementAndGet();
+      }
+    }
+  }
+
+  private Bucket bucket(long time) {
+    Bucket b = current;
+    if (b == null || b.time != time || b.removed) {
+      do {
+        // the bucket may be marked as removed but still be in the map for a moment
+        b = buckets.computeIfAbsent(Long.valueOf(time), t -> new Bucket(t.longValue()));
+      } while (b.removed);
+      current = b;
+    }
+    return b;
+  }
+
+  /**
+   * Send the values of all buckets to the sink and reset the counters to zero. Buckets without any
+   * new values for the last two drains are removed.
+   */
+  public synchronized void drain(Sink sink) {
+    for (Bucket b : buckets.values()) {
+      if (b.drain(sink)) {
+        b.idle = 0;
+      } else if (++b.idle == 2) {
+        b.removed = true;
+        buckets.remove(Long.valueOf(b.time), b);
+        if (current == b) {
+          current = null;
+        }
+        // send values added by writers that got the bucket before it was removed
+        while (b.writers.get() > 0) {
+          Thread.yield();
+        }
+        b.drain(sink);
+      }
+    }
+  }
+
+  int size() {
+    return buckets.size();
+  }
+
+  public void clear() {
+    buckets.clear();
+    current = null;
+  }
+
+  public class CodeSlots {
+
+    private final int min;
+    private final IntFunction<String> name;
+    // slot + 1, 0 means the slot is not created yet
+    private final AtomicIntegerArray slots;
+
+    private CodeSlots(int min, int max, IntFunction<String> name) {
+      this.min = min;
+      this.name = name;
+      this.slots = new AtomicIntegerArray(max - min);
+    }
+
+    public int slot(int code) {
+      int i = code - min;
+      if (i < 0 || i >= slots.length()) {
+        return MetricBuckets.this.slot(name.apply(code), true);
+      }
+
+      int s = slots.get(i);
+      if (s == 0) {
+        s = MetricBuckets.this.slot(name.apply(code), true) + 1;
+        slots.set(i, s);
+      }
+      return s - 1;
+    }
+  }
+
+  private class Bucket {
+
+    private final long time;
+    // number of drains without values, only used by drain
+    private int idle;
+    private volatile boolean removed;
+    // number of writers adding a value
+    private final AtomicInteger writers = new AtomicInteger();
+    private final AtomicReferenceArray<AtomicLongArray> values =
+        new AtomicReferenceArray<>(MAX_SLOTS / CHUNK_SIZE);
+    private final AtomicReferenceArray<AtomicLongArray> samples =
+        new AtomicReferenceArray<>(MAX_SLOTS / CHUNK_SIZE);
+
+    private Bucket(long time) {
+      this.time = time;
+    }
+
+    private void add(int slot, int value, boolean sample) {
+      int c = slot >>> CHUNK_BITS;
+      int i = slot & (CHUNK_SIZE - 1);
+      chunk(values, c).getAndAdd(i, value);
+      if (sample) {
+        chunk(samples, c).getAndIncrement(i);
+      }
+    }
+
+    private AtomicLongArray chunk(AtomicReferenceArray<AtomicLongArray> chunks, int c) {
+      AtomicLongArray chunk = chunks.get(c);
+      if (chunk == null) {
+        chunks.compareAndSet(c, null, new AtomicLongArray(CHUNK_SIZE));
+        chunk = chunks.get(c);
+      }
+      return chunk;
+    }
+
+    /**
+     * @return false if the bucket did not contain any values
+     */
+    private boolean drain(Sink sink) {
+      boolean found = false;
+      for (int c = 0; c < values.length(); c++) {
+        AtomicLongArray v = values.get(c);
+        if (v == null) {
+          continue;
+        }
+
+        AtomicLongArray s = samples.get(c);
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+          long value = v.getAndSet(i, 0);
+          int n = s != null ? (int) s.getAndSet(i, 0) : 0;
+          if (value != 0 || n != 0) {
+            int slot = (c << CHUNK_BITS) + i;
+            sink
+                .metric(names.get(slot), counters.get(slot).booleanValue(), time, value,
+                    counters.get(slot).booleanValue() ? (int) value : n);
+            found = true;
+          }
+        }
+      }
+      return found;
+    }
+  }
+
+}
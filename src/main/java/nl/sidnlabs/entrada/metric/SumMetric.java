@@ -29,6 +29,13 @@ public class SumMetric implements Metric {
     updated = true;
   }
 
+  @Override
+  public void update(long value, int samples) {
+    this.value += value;
+    this.samples += samples;
+    updated = true;
+  }
+
   @Override
   public String toString() {
     return name + " " + value + " " + time;
@@ -0,0 +1,19 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import lombok.Value;
+
+/**
+ * Value of a historical metric for a single time bucket
+ */
+@Value
+public class Datapoint {
+
+  // metric name without prefix and server
+  private String metric;
+  // normalized name of the name server
+  private String server;
+  private double value;
+  // time in seconds since epoch
+  private long time;
+
+}
@@ -0,0 +1,72 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.codahale.metrics.graphite.Graphite;
+import com.codahale.metrics.graphite.GraphiteSender;
+import com.codahale.metrics.graphite.GraphiteUDP;
+import com.codahale.metrics.graphite.PickledGraphite;
+
+/**
+ * Send metrics to Graphite, using the protocol configured for the Graphite registry: plaintext,
+ * pickled or udp. The pickle protocol sends the datapoints in batches instead of a line per
+ * datapoint.
+ */
+@Component
+public class GraphiteExporter implements MetricExporter {
+
+  @Value("${management.metrics.export.graphite.prefix}")
+  private String prefix;
+
+  @Value("${management.metrics.export.graphite.host}")
+  private String host;
+
+  @Value("${management.metrics.export.graphite.port}")
+  private int port;
+
+  @Value("${management.metrics.export.graphite.protocol:plaintext}")
+  private String protocol;
+
+  @Override
+  public String name() {
+    return "graphite";
+  }
+
+  @Override
+  public void export(List<Datapoint> datapoints) throws IOException {
+    GraphiteSender graphite = sender();
+    try {
+      graphite.connect();
+      for (Datapoint dp : datapoints) {
+        graphite.send(metricName(dp), String.valueOf(dp.getValue()), dp.getTime());
+      }
+      graphite.flush();
+    } finally {
+      // close will also do a flush
+      graphite.close();
+    }
+  }
+
+  private GraphiteSender sender() {
+    if (StringUtils.equalsIgnoreCase(protocol, "pickled")) {
+      return new PickledGraphite(host, port);
+    } else if (StringUtils.equalsIgnoreCase(protocol, "udp")) {
+      return new GraphiteUDP(host, port);
+    }
+    return new Graphite(host, port);
+  }
+
+  private String metricName(Datapoint dp) {
+    return new StringBuilder()
+        .append(prefix)
+        .append(".")
+        .append(dp.getMetric())
+        .append(".ns.")
+        .append(dp.getServer())
+        .toString();
+  }
+
+}
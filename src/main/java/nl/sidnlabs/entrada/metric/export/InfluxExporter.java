@@ -0,0 +1,110 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.google.common.collect.Lists;
+import nl.sidnlabs.entrada.exception.ApplicationException;
+
+/**
+ * Send metrics to InfluxDB using the line protocol, the metric name is used as measurement and the
+ * server is added as "ns" tag. Works with the v1 (/write?db=) and v2 (/api/v2/write?bucket=) write
+ * api.
+ */
+@Component
+public class InfluxExporter implements MetricExporter {
+
+  // max number of lines in a single request
+  private static final int BATCH_SIZE = 5000;
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  @Value("${management.metrics.export.graphite.prefix}")
+  private String prefix;
+
+  @Value("${entrada.metrics.influx.url:}")
+  private String url;
+
+  @Value("${entrada.metrics.influx.token:}")
+  private String token;
+
+  private HttpClient client;
+
+  @Override
+  public String name() {
+    return "influx";
+  }
+
+  @Override
+  public void export(List<Datapoint> datapoints) throws IOException {
+    if (StringUtils.isBlank(url)) {
+      throw new ApplicationException("Config option entrada.metrics.influx.url is not set");
+    }
+
+    if (client == null) {
+      client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+    }
+
+    for (List<Datapoint> batch : Lists.partition(datapoints, BATCH_SIZE)) {
+      StringBuilder body = new StringBuilder(batch.size() * 64);
+      batch.stream().forEach(dp -> line(dp, body));
+      post(body.toString());
+    }
+  }
+
+  private void post(String body) throws IOException {
+    HttpRequest.Builder request = HttpRequest
+        .newBuilder(URI.create(url))
+        .timeout(TIMEOUT)
+        .header("Content-Type", "text/plain; charset=utf-8")
+        .POST(BodyPublishers.ofString(body));
+
+    if (StringUtils.isNotBlank(token)) {
+      request.header("Authorization", "Token " + token);
+    }
+
+    try {
+      HttpResponse<String> response = client.send(request.build(), BodyHandlers.ofString());
+      if (response.statusCode() >= 300) {
+        throw new IOException(
+            "InfluxDB write failed, status: " + response.statusCode() + " " + response.body());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sending metrics to InfluxDB");
+    }
+  }
+
+  private void line(Datapoint dp, StringBuilder sb) {
+    // <measurement>,ns=<server> value=<value> <timestamp in ns>
+    escape(prefix + "." + dp.getMetric(), sb);
+    sb.append(",ns=");
+    escape(dp.getServer(), sb);
+    sb
+        .append(" value=")
+        .append(dp.getValue())
+        .append(' ')
+        .append(dp.getTime() * 1_000_000_000L)
+        .append('\n');
+  }
+
+  private static void escape(String s, StringBuilder sb) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == ',' || c == '=' || c == ' ') {
+        sb.append('\\');
+      }
+      sb.append(c);
+    }
+  }
+
+}
@@ -0,0 +1,25 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Exporter for the historical metrics, the exporter to use is selected using config option
+ * entrada.metrics.exporter. Exporters are called by the {@link MetricSender} thread only.
+ */
+public interface MetricExporter {
+
+  /**
+   * @return name of the exporter, as used for config option entrada.metrics.exporter
+   */
+  String name();
+
+  /**
+   * Send a batch of datapoints to the metrics backend
+   * 
+   * @param datapoints the datapoints to send
+   * @throws IOException when the datapoints could not be sent
+   */
+  void export(List<Datapoint> datapoints) throws IOException;
+
+}
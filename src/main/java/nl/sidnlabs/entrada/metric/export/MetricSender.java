@@ -0,0 +1,98 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import nl.sidnlabs.entrada.exception.ApplicationException;
+
+/**
+ * Sends batches of historical metrics on a background thread, so the processing of pcap files is
+ * not blocked by the metrics backend. The batches are sent in order, when too many batches are
+ * waiting the thread adding a batch waits until there is room in the queue.
+ */
+@Log4j2
+@Component
+public class MetricSender {
+
+  private static final long SHUTDOWN_WAIT_SECS = 60;
+
+  private final MetricExporter exporter;
+  private final ThreadPoolExecutor executor;
+
+  public MetricSender(List<MetricExporter> exporters,
+      @Value("${entrada.metrics.exporter:graphite}") String name,
+      @Value("${entrada.metrics.exporter.queue:10}") int queueSize) {
+
+    this.exporter = exporters
+        .stream()
+        .filter(e -> StringUtils.equalsIgnoreCase(e.name(), StringUtils.trim(name)))
+        .findFirst()
+        .orElseThrow(() -> new ApplicationException("Unknown metrics exporter: " + name));
+
+    this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueSize),
+        new ThreadFactoryBuilder().setNameFormat("entrada-metrics-%d").setDaemon(true).build(),
+        MetricSender::waitForQueue);
+  }
+
+  private static void waitForQueue(Runnable r, ThreadPoolExecutor executor) {
+    if (executor.isShutdown()) {
+      log.error("Metric sender is closed, metrics are not sent");
+      return;
+    }
+
+    try {
+      // the executor has a single thread, a queued batch is sent after the batches already queued
+      executor.getQueue().put(r);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ApplicationException("Interrupted while waiting to send metrics", e);
+    }
+  }
+
+  /**
+   * Queue the datapoints for sending
+   * 
+   * @param datapoints batch of datapoints
+   */
+  public void send(List<Datapoint> datapoints) {
+    if (datapoints.isEmpty()) {
+      return;
+    }
+    executor.execute(() -> export(datapoints));
+  }
+
+  private void export(List<Datapoint> datapoints) {
+    long start = System.currentTimeMillis();
+    try {
+      exporter.export(datapoints);
+      log
+          .info("Sent {} datapoints using {} exporter, time: {}ms", datapoints.size(),
+              exporter.name(), System.currentTimeMillis() - start);
+    } catch (Exception e) {
+      log
+          .error("Could not send {} datapoints using {} exporter", datapoints.size(),
+              exporter.name(), e);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_WAIT_SECS, TimeUnit.SECONDS)) {
+        log.error("Timeout while sending metrics, not all metrics have been sent");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
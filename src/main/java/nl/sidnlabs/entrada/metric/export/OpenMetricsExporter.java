@@ -0,0 +1,87 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import nl.sidnlabs.entrada.exception.ApplicationException;
+
+/**
+ * Write metrics to files using the OpenMetrics text format, a new file is created for each batch.
+ * The files can be imported into Prometheus using "promtool tsdb create-blocks-from openmetrics".
+ * A file is written to a temporary name first and then renamed, so a file is never read before it
+ * is complete.
+ */
+@Component
+public class OpenMetricsExporter implements MetricExporter {
+
+  private static final String EXTENSION = ".om";
+
+  @Value("${management.metrics.export.graphite.prefix}")
+  private String prefix;
+
+  @Value("${entrada.metrics.openmetrics.location:}")
+  private String location;
+
+  private int fileCounter;
+
+  @Override
+  public String name() {
+    return "openmetrics";
+  }
+
+  @Override
+  public void export(List<Datapoint> datapoints) throws IOException {
+    if (StringUtils.isBlank(location)) {
+      throw new ApplicationException(
+          "Config option entrada.metrics.openmetrics.location is not set");
+    }
+
+    // all datapoints of a metric must be grouped together, with increasing timestamps
+    List<Datapoint> sorted = new ArrayList<>(datapoints);
+    sorted
+        .sort(Comparator
+            .comparing(Datapoint::getMetric)
+            .thenComparing(Datapoint::getServer)
+            .thenComparingLong(Datapoint::getTime));
+
+    Path dir = Files.createDirectories(Paths.get(location));
+    String name = prefix + "-" + System.currentTimeMillis() + "-" + (fileCounter++);
+    Path tmp = dir.resolve("." + name + ".tmp");
+
+    try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      String family = null;
+      for (Datapoint dp : sorted) {
+        String metric = metricName(dp.getMetric());
+        if (!metric.equals(family)) {
+          family = metric;
+          w.write("# TYPE " + metric + " gauge\n");
+        }
+        w
+            .write(metric + "{ns=\"" + escape(dp.getServer()) + "\"} " + dp.getValue() + " "
+                + dp.getTime() + "\n");
+      }
+      w.write("# EOF\n");
+    }
+
+    Files.move(tmp, dir.resolve(name + EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private String metricName(String metric) {
+    return (prefix + "_" + metric).replaceAll("[^a-zA-Z0-9_:]", "_");
+  }
+
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+}
@@ -118,16 +118,16 @@ public abstract class AbstractRowBuilder implements RowBuilder {
         continue;
       }
 
-      String value = e.match(address, inetAddress);
-      if (value != null) {
-        // addColumn(record, prefix, e.getColumn(), value, metrics, time);
-
-        record.put(prefix + e.getColumn(), value);
-
-        if (cached != null) {
-          cached.add(new EnrichmentValue(e.getColumn(), value, e instanceof ResolverEnrichment));
+      // an enrichment may add multiple columns, e.g. geoip adds country and asn
+      List<EnrichmentValue> values = cached;
+      boolean resolver = e instanceof ResolverEnrichment;
+      e.match(address, inetAddress, (column, value) -> {
+        record.put(prefix + column, value);
+
+        if (values != null) {
+          values.add(new EnrichmentValue(column, value, resolver));
         }
-      }
+      });
     }
 
     if (cached != null) {
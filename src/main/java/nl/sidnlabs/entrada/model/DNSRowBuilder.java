@@ -8,6 +8,7 @@ import org.apache.avro.Schema.Field;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.commons.lang3.NotImplementedException;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import akka.japi.Pair;
 import nl.sidnlabs.dnslib.message.Header;
@@ -23,12 +24,14 @@ import nl.sidnlabs.dnslib.message.records.edns0.PaddingOption;
 import nl.sidnlabs.dnslib.message.records.edns0.PingOption;
 import nl.sidnlabs.dnslib.util.NameUtil;
 import nl.sidnlabs.entrada.ServerContext;
+import nl.sidnlabs.entrada.config.ServerScope;
 import nl.sidnlabs.entrada.enrich.AddressEnrichment;
 import nl.sidnlabs.entrada.support.RowData;
 import nl.sidnlabs.pcap.packet.Packet;
 import nl.sidnlabs.pcap.packet.PacketFactory;
 
 @Component("dns")
+@Scope(ServerScope.NAME)
 public class DNSRowBuilder extends AbstractRowBuilder {
 
   private static final int RCODE_QUERY_WITHOUT_RESPONSE = -1;
@@ -5,6 +5,7 @@ import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.commons.lang3.NotImplementedException;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import akka.japi.Pair;
 import nl.sidnlabs.dnslib.message.Header;
@@ -13,6 +14,7 @@ import nl.sidnlabs.dnslib.message.Question;
 import nl.sidnlabs.dnslib.message.records.edns0.OPTResourceRecord;
 import nl.sidnlabs.dnslib.util.NameUtil;
 import nl.sidnlabs.entrada.ServerContext;
+import nl.sidnlabs.entrada.config.ServerScope;
 import nl.sidnlabs.entrada.enrich.AddressEnrichment;
 import nl.sidnlabs.entrada.support.RowData;
 import nl.sidnlabs.pcap.packet.DNSPacket;
@@ -20,6 +22,7 @@ import nl.sidnlabs.pcap.packet.ICMPPacket;
 import nl.sidnlabs.pcap.packet.Packet;
 
 @Component("icmp")
+@Scope(ServerScope.NAME)
 public class ICMPRowBuilder extends AbstractRowBuilder {
 
   private static final String ICMP_AVRO_SCHEMA = "/avro/icmp-packet.avsc";
@@ -1,6 +1,7 @@
 package nl.sidnlabs.entrada.model.jpa;
 
 import java.time.LocalDate;
+import java.util.Set;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
@@ -12,6 +13,9 @@ public interface FileArchiveRepository extends CrudRepository<FileArchive, Integ
 
   FileArchive findByFileAndServer(String file, String server);
 
+  @Query("SELECT f.file FROM FileArchive f WHERE f.server = :server")
+  Set<String> findFilesByServer(@Param("server") String server);
+
   @Modifying
   @Query(value = "DELETE FROM entrada_file_archive WHERE date_start < :max_date",
       nativeQuery = true)
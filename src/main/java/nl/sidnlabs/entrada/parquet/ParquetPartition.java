@@ -5,12 +5,14 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.UUID;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.parquet.avro.AvroParquetWriter;
 import org.apache.parquet.column.ParquetProperties.WriterVersion;
 import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import lombok.Getter;
 import lombok.Setter;
@@ -32,6 +34,22 @@ public class ParquetPartition<T> {
   private Path currentFile;
 
   public ParquetPartition(String partition, Schema schema, int rowgroupsize, int pageRowLimit) {
+    this(partition, schema, rowgroupsize, pageRowLimit, false);
+  }
+
+  /**
+   * Create a new partition file
+   * 
+   * @param partition path of the partition
+   * @param schema Avro schema of the rows
+   * @param rowgroupsize max size of a rowgroup
+   * @param pageRowLimit max rows in a page
+   * @param fastWrite write rows using {@link GenericRecordWriteSupport} instead of
+   *        AvroWriteSupport
+   */
+  @SuppressWarnings("unchecked")
+  public ParquetPartition(String partition, Schema schema, int rowgroupsize, int pageRowLimit,
+      boolean fastWrite) {
 
     long start = System.currentTimeMillis();
 
@@ -44,13 +62,15 @@ public class ParquetPartition<T> {
     try {
       Files.createDirectories(Paths.get(partition));
 
-      writer = AvroParquetWriter
-          .<T>builder(currentFile)
+      ParquetWriter.Builder<T, ?> builder = fastWrite
+          ? (ParquetWriter.Builder<T, ?>) new FastWriterBuilder(currentFile, schema)
+          : AvroParquetWriter.<T>builder(currentFile).withSchema(schema);
+
+      writer = builder
           .enableDictionaryEncoding()
           .withCompressionCodec(CompressionCodecName.SNAPPY)
           .withConf(conf)
           .withWriterVersion(WriterVersion.PARQUET_1_0)
-          .withSchema(schema)
           .withRowGroupSize(rowgroupsize)
           .withPageRowCountLimit(pageRowLimit)
           .build();
@@ -102,4 +122,25 @@ public class ParquetPartition<T> {
   public long size() {
     return writer != null ? writer.getDataSize() : 0;
   }
+
+  private static class FastWriterBuilder
+      extends ParquetWriter.Builder<GenericRecord, FastWriterBuilder> {
+
+    private final Schema schema;
+
+    private FastWriterBuilder(Path file, Schema schema) {
+      super(file);
+      this.schema = schema;
+    }
+
+    @Override
+    protected FastWriterBuilder self() {
+      return this;
+    }
+
+    @Override
+    protected WriteSupport<GenericRecord> getWriteSupport(Configuration conf) {
+      return new GenericRecordWriteSupport(schema);
+    }
+  }
 }
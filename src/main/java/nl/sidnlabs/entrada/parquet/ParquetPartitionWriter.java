@@ -22,11 +22,18 @@ public class ParquetPartitionWriter {
   private int rowgroupsize;
   private int pageRowLimit;
   private int rows = 0;
+  private boolean fastWrite;
 
   private Map<String, ParquetPartition<GenericRecord>> partitions = new HashMap<>();
 
   public ParquetPartitionWriter(String path, int maxSize, int rowgroupsize, int pageRowLimit) {
+    this(path, maxSize, rowgroupsize, pageRowLimit, false);
+  }
+
+  public ParquetPartitionWriter(String path, int maxSize, int rowgroupsize, int pageRowLimit,
+      boolean fastWrite) {
     this.path = path;
+    this.fastWrite = fastWrite;
     this.maxSize = maxSize;
     this.rowgroupsize = Math.min(maxSize, rowgroupsize);
     this.pageRowLimit = pageRowLimit;
@@ -40,7 +47,8 @@ public class ParquetPartitionWriter {
     // check is partition already exists, if not create a new partition
     ParquetPartition<GenericRecord> parquetPartition = partitions.get(partitionStr);
     if (parquetPartition == null) {
-      parquetPartition = new ParquetPartition<>(partitionStr, schema, rowgroupsize, pageRowLimit);
+      parquetPartition =
+          new ParquetPartition<>(partitionStr, schema, rowgroupsize, pageRowLimit, fastWrite);
       partitions.put(partitionStr, parquetPartition);
       newPartition = true;
     }
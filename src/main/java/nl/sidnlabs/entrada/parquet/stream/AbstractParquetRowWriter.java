@@ -34,6 +34,8 @@ import nl.sidnlabs.entrada.exception.ApplicationException;
 import nl.sidnlabs.entrada.file.FileManager;
 import nl.sidnlabs.entrada.file.FileManagerFactory;
 import nl.sidnlabs.entrada.load.RowWriter;
+import nl.sidnlabs.entrada.metric.HotPathMetrics;
+import nl.sidnlabs.entrada.metric.HotPathMetrics.Recorder;
 import nl.sidnlabs.entrada.model.Partition;
 import nl.sidnlabs.entrada.model.ProtocolType;
 import nl.sidnlabs.entrada.parquet.ParquetPartitionWriter;
@@ -56,16 +58,20 @@ public abstract class AbstractParquetRowWriter implements RowWriter {
 
   @Value("${entrada.location.work}")
   protected String workLocation;
+  @Value("${entrada.parquet.writer.fast:false}")
+  protected boolean fastWrite;
   protected String serverHome;
 
   protected Calendar cal;
   protected Partition partition;
 
   protected Set<Partition> partitions = new HashSet<>();
+  protected final Recorder metrics;
 
   public AbstractParquetRowWriter(int maxfilesize, int rowgroupsize, int pageRowLimit,
-      ServerContext ctx) {
+      ServerContext ctx, HotPathMetrics metrics) {
     this.maxfilesize = maxfilesize;
+    this.metrics = metrics.recorder();
     this.rowgroupsize = rowgroupsize;
     this.pageRowLimit = pageRowLimit;
     this.ctx = ctx;
@@ -101,7 +107,8 @@ public abstract class AbstractParquetRowWriter implements RowWriter {
       log.error("Cannot create location: " + path);
     }
 
-    writer = new ParquetPartitionWriter(path, maxfilesize, rowgroupsize, pageRowLimit);
+    writer =
+        new ParquetPartitionWriter(path, maxfilesize, rowgroupsize, pageRowLimit, fastWrite);
     log.info("Created new Parquet writer using path: {}", path);
 
     open = true;
@@ -124,6 +131,7 @@ public abstract class AbstractParquetRowWriter implements RowWriter {
   public void close() {
     log.info("Close " + type().name() + "Parquet writer");
     reset();
+    metrics.flush();
 
     if (writer != null) {
       writer.close();
@@ -21,7 +21,6 @@ package nl.sidnlabs.entrada.parquet.stream;
 
 import java.util.Calendar;
 
-import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.commons.lang3.StringUtils;
@@ -30,6 +29,8 @@ import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import nl.sidnlabs.entrada.ServerContext;
+import nl.sidnlabs.entrada.metric.HotPathMetrics;
+import nl.sidnlabs.entrada.metric.HotPathMetrics.Meter;
 import nl.sidnlabs.entrada.model.Partition;
 import nl.sidnlabs.entrada.model.ProtocolType;
 
@@ -39,14 +40,12 @@ public class DNSParquetPacketWriterImpl extends AbstractParquetRowWriter {
 
   private static final String DNS_AVRO_SCHEMA = "/avro/dns-query.avsc";
   private Schema schema = schema(DNS_AVRO_SCHEMA);
-  private final MeterRegistry registry;
 
   public DNSParquetPacketWriterImpl(
           @Value("#{${entrada.parquet.filesize.max:128}*1024*1024}") int maxfilesize,
           @Value("#{${entrada.parquet.rowgroup.size:128}*1024*1024}") int rowgroupsize,
-          @Value("${entrada.parquet.page-row.limit:20000}") int pageRowLimit, ServerContext ctx, MeterRegistry registry) {
-    super(maxfilesize, rowgroupsize, pageRowLimit, ctx);
-    this.registry = registry;
+          @Value("${entrada.parquet.page-row.limit:20000}") int pageRowLimit, ServerContext ctx, HotPathMetrics metrics) {
+    super(maxfilesize, rowgroupsize, pageRowLimit, ctx, metrics);
   }
 
   /**
@@ -80,7 +79,7 @@ public class DNSParquetPacketWriterImpl extends AbstractParquetRowWriter {
     }
 
     writer.write(record, schema, partition);
-    registry.counter("entrada.dns.packets.processed").increment();
+    metrics.increment(Meter.DNS_ROWS);
   }
 
   private boolean isNewPartition(String server) {
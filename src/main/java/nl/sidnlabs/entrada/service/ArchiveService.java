@@ -1,20 +1,31 @@
 package nl.sidnlabs.entrada.service;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import lombok.extern.log4j.Log4j2;
-import nl.sidnlabs.entrada.ServerContext;
 import nl.sidnlabs.entrada.file.FileManager;
 import nl.sidnlabs.entrada.file.FileManagerFactory;
 import nl.sidnlabs.entrada.model.jpa.FileArchive;
 import nl.sidnlabs.entrada.model.jpa.FileArchive.ArchiveModeType;
 import nl.sidnlabs.entrada.model.jpa.FileArchiveRepository;
+import nl.sidnlabs.entrada.util.CompressionUtil;
 import nl.sidnlabs.entrada.util.FileUtil;
 
 @Log4j2
@@ -30,65 +41,188 @@ public class ArchiveService {
   @Value("${entrada.location.archive}")
   private String archiveLocation;
 
+  @Value("${entrada.location.work}")
+  private String workLocation;
+
+  @Value("${entrada.pcap.archive.zstd:false}")
+  private boolean archiveZstd;
+
+  @Value("${entrada.pcap.archive.zstd.level:3}")
+  private int zstdLevel;
+
+  @Value("${entrada.inputstream.buffer:64}")
+  private int bufferSize;
+
+  // max number of processed files that are saved to the database in a single batch
+  @Value("${entrada.database.files.batch.size:100}")
+  private int batchSize;
+
+  // names of the processed files for each server, loaded from the database
+  private final Map<String, Set<String>> processed = new ConcurrentHashMap<>();
+  // processed files not yet saved to the database, for each server
+  private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
   private ArchiveModeType archiveOption;
 
   private FileManagerFactory fileManagerFactory;
   private FileArchiveRepository fileArchiveRepository;
-  private ServerContext serverContext;
 
   public ArchiveService(FileManagerFactory fileManagerFactory,
       FileArchiveRepository fileArchiveRepository,
-      @Value("${entrada.pcap.archive.mode}") String archiveMode, ServerContext serverContext) {
+      @Value("${entrada.pcap.archive.mode}") String archiveMode) {
 
     this.fileManagerFactory = fileManagerFactory;
     this.fileArchiveRepository = fileArchiveRepository;
     this.archiveOption = ArchiveModeType.valueOf(StringUtils.upperCase(archiveMode));
-    this.serverContext = serverContext;
+  }
+
+  /**
+   * Load the names of the files that have been processed for the server from the database, used
+   * to check if a file has already been processed without querying the database for each file.
+   * 
+   * @param server name of the server
+   */
+  public void load(String server) {
+    Set<String> files = ConcurrentHashMap.newKeySet();
+    files.addAll(fileArchiveRepository.findFilesByServer(server));
+    Pending unsaved = pending.get(server);
+    if (unsaved != null) {
+      synchronized (unsaved) {
+        unsaved.rows.forEach(fa -> files.add(fa.getFile()));
+      }
+    }
+    processed.put(server, files);
+
+    log.info("Loaded {} processed files for server: {}", files.size(), server);
+  }
+
+  private Set<String> processed(String server) {
+    Set<String> files = processed.get(server);
+    if (files == null) {
+      load(server);
+      files = processed.get(server);
+    }
+    return files;
   }
 
   public boolean exists(String file, String server) {
     File f = new File(file);
-    return fileArchiveRepository.findByFileAndServer(f.getName(), server) != null;
+    return processed(server).contains(f.getName());
+  }
+
+  /**
+   * Save the processed files of the server that have not been saved to the database yet, and then
+   * archive or delete the pcap files. When saving fails the pcap files are kept in the input
+   * location, so a file is never removed before it is saved as processed.
+   * 
+   * @param server name of the server
+   * @return the input files that have been saved as processed
+   */
+  public List<String> flush(String server) {
+    Pending p = pending.get(server);
+    if (p == null) {
+      return Collections.emptyList();
+    }
+
+    List<FileArchive> rows;
+    List<String> files;
+    List<String> inputs;
+    synchronized (p) {
+      if (p.inputs.isEmpty()) {
+        return Collections.emptyList();
+      }
+      rows = new ArrayList<>(p.rows);
+      files = new ArrayList<>(p.files);
+      inputs = new ArrayList<>(p.inputs);
+      p.rows.clear();
+      p.files.clear();
+      p.inputs.clear();
+    }
+
+    if (!rows.isEmpty()) {
+      try {
+        // saveAll commits its own transaction, the rows are in the database before the files move
+        fileArchiveRepository.saveAll(rows);
+      } catch (RuntimeException e) {
+        // keep the rows and files for the next flush
+        synchronized (p) {
+          p.rows.addAll(0, rows);
+          p.files.addAll(files);
+          p.inputs.addAll(inputs);
+        }
+        throw e;
+      }
+    }
+    files.forEach(f -> moveOrDelete(f, server));
+    return inputs;
   }
 
   /**
-   * Archive (move) data from src to target dst for archival, supported modes of operation are:
-   * local2hdfs, local2s3, local2local, s32s3, hdfs2hsfs
+   * Add the file to the processed files of the server. The file is saved to the database with the
+   * next batch of processed files, when the batch is saved the file is archived (moved) or deleted
+   * depending on the archive mode. Supported modes of operation are: local2hdfs, local2s3,
+   * local2local, s32s3, hdfs2hsfs
    * 
    * @param file the file to archive
+   * @param server name of the server the file belongs to
    * @param start time the file was processed
    * @param packets the number of packets found in the file
+   * @return the input files that have been saved as processed when the batch was full
    */
-  @Transactional
-  public void archive(String file, Date start, int packets, long bytes) {
+  public List<String> archive(String file, String server, Date start, int packets, long bytes) {
     File f = new File(file);
-    FileManager fmSrc = fileManagerFactory.getFor(file);
+    Pending p = pending.computeIfAbsent(server, k -> new Pending());
+    int size;
+
+    synchronized (p) {
+      // add the file to the database
+      if (!exists(file, server)) {
+        Date now = new Date();
+
+        FileArchive fa = FileArchive
+            .builder()
+            .dateEnd(now)
+            .file(f.getName())
+            .path(f.getParent())
+            .server(server)
+            .dateStart(start)
+            .rows(packets)
+            .time(now.getTime() - start.getTime())
+            .mode(archiveOption)
+            .bytes(bytes)
+            .build();
+
+        processed(server).add(f.getName());
+        p.rows.add(fa);
+      }
+
+      if (ArchiveModeType.NONE != archiveOption) {
+        // a file that is found again before it is moved is only moved once
+        p.files.add(file);
+      }
+      p.inputs.add(file);
+      size = p.inputs.size();
+    }
 
-    // add the file to the database
-    if (!exists(file, serverContext.getServerInfo().getName())) {
-      Date now = new Date();
-
-      FileArchive fa = FileArchive
-          .builder()
-          .dateEnd(now)
-          .file(f.getName())
-          .path(f.getParent())
-          .server(serverContext.getServerInfo().getName())
-          .dateStart(start)
-          .rows(packets)
-          .time(now.getTime() - start.getTime())
-          .mode(archiveOption)
-          .bytes(bytes)
-          .build();
-
-      fileArchiveRepository.save(fa);
+    if (size >= batchSize) {
+      return flush(server);
     }
+    return Collections.emptyList();
+  }
+
+  private void moveOrDelete(String file, String server) {
+    FileManager fmSrc = fileManagerFactory.getFor(file);
 
     if (ArchiveModeType.ARCHIVE == archiveOption) {
       // move the pcap file to the archive location
       log.info("Archive: {} with mode: {}", file, archiveOption);
 
       FileManager fmDst = fileManagerFactory.getFor(archiveLocation);
+      // the file to archive, the recompressed version of the pcap file when enabled
+      String archiveFile = file;
+      if (archiveZstd && fmSrc.isLocal() && !CompressionUtil.isZstd(file)) {
+        archiveFile = zstd(file);
+      }
 
       if (!fmSrc.isLocal() && !StringUtils.equals(fmDst.schema(), fmSrc.schema())) {
         // no support for moving data between different remote fs
@@ -102,18 +236,19 @@ public class ArchiveService {
 
       if (StringUtils.equals(fmSrc.schema(), fmDst.schema())) {
         // move data on local fs OR on the same remote fs
-        String dst = FileUtil
-            .appendPath(archiveLocation, serverContext.getServerInfo().getName(), f.getName());
+        String dst = FileUtil.appendPath(archiveLocation, server, FileUtil.filename(archiveFile));
 
-        if (!fmSrc.move(file, dst, true)) {
-          log.error("File archiving failed for: {} to archive location: {} ", file, dst);
+        if (!fmSrc.move(archiveFile, dst, true)) {
+          log.error("File archiving failed for: {} to archive location: {} ", archiveFile, dst);
         }
       } else if (fmSrc.isLocal() && !fmDst.isLocal()) {
         // move data from local to remote fs
-        fmDst
-            .upload(file,
-                FileUtil.appendPath(archiveLocation, serverContext.getServerInfo().getName()),
-                true);
+        fmDst.upload(archiveFile, FileUtil.appendPath(archiveLocation, server), true);
+      }
+
+      if (!StringUtils.equals(file, archiveFile)) {
+        // remove the recompressed file and its directory from the work location
+        FileUtils.deleteQuietly(new File(archiveFile).getParentFile());
       }
     }
 
@@ -123,6 +258,29 @@ public class ArchiveService {
     }
   }
 
+  /**
+   * Recompress a local pcap file using zstd, the zstd file is created in a new temp directory in
+   * the work location. Files with the same name for different servers can be archived at the same
+   * time, the file keeps its name so it is archived using the name of the pcap file.
+   *
+   * @return the zstd file or the original file when recompressing failed
+   */
+  private String zstd(String file) {
+    Path dir = null;
+    try {
+      dir = Files.createTempDirectory(Paths.get(workLocation), "zstd-");
+      String dst = dir.resolve(CompressionUtil.zstdFilename(FileUtil.filename(file))).toString();
+      CompressionUtil.zstd(file, dst, zstdLevel, bufferSize * 1024);
+      return dst;
+    } catch (IOException e) {
+      log.error("Cannot recompress {} using zstd, archive the original file", file, e);
+      if (dir != null) {
+        FileUtils.deleteQuietly(dir.toFile());
+      }
+    }
+    return file;
+  }
+
   /**
    * Clean processed files from database and archive location
    */
@@ -133,11 +291,13 @@ public class ArchiveService {
     // clean database
     log.info("Check for files in database older than: {}", maxDate);
     int rows = fileArchiveRepository.deleteOlderThan(maxDate);
+    // reload the processed files when used again
+    processed.clear();
     log.info("Deleted {} files from database older than: {}", rows, maxDate);
 
     // clean output location on local disk or HDFS. AWS is cleaned using a lifecycle policy
     FileManager fm = fileManagerFactory.getFor(archiveLocation);
-    List<String> expired = fm.expired(archiveLocation, fileMaxAge, ".pcap", ".gz", ".bz2", ".xz");
+    List<String> expired = fm.expired(archiveLocation, fileMaxAge, CompressionUtil.EXTENSIONS);
 
     log
         .info("{} archived file(s) older than {} day(s) will be deleted", expired.size(),
@@ -145,5 +305,13 @@ public class ArchiveService {
     expired.stream().forEach(fm::delete);
   }
 
+  private static class Pending {
+    // rows to save to the database
+    private final List<FileArchive> rows = new ArrayList<>();
+    // pcap files to archive or delete after the rows have been saved
+    private final Set<String> files = new LinkedHashSet<>();
+    // all processed input files, including the files that were found again
+    private final Set<String> inputs = new LinkedHashSet<>();
+  }
 
 }
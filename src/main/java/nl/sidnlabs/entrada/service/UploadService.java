@@ -5,9 +5,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import lombok.extern.log4j.Log4j2;
 import nl.sidnlabs.entrada.ServerContext;
+import nl.sidnlabs.entrada.config.ServerScope;
 import nl.sidnlabs.entrada.engine.QueryEngine;
 import nl.sidnlabs.entrada.file.FileManager;
 import nl.sidnlabs.entrada.file.FileManagerFactory;
@@ -16,6 +18,7 @@ import nl.sidnlabs.entrada.util.FileUtil;
 
 @Log4j2
 @Component
+@Scope(ServerScope.NAME)
 public class UploadService {
 
   @Value("${entrada.location.work}")
@@ -0,0 +1,425 @@
+/*
+ * ENTRADA, a big data platform for network data analytics
+ *
+ * Copyright (C) 2016 SIDN [https://www.sidn.nl]
+ *
+ * This file is part of ENTRADA.
+ *
+ * ENTRADA is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * ENTRADA is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with ENTRADA. If not, see
+ * [<http://www.gnu.org/licenses/].
+ *
+ */
+package nl.sidnlabs.entrada.support;
+
+import java.util.Arrays;
+import java.util.Objects;
+import nl.sidnlabs.dnslib.message.Message;
+import nl.sidnlabs.pcap.packet.Packet;
+
+/**
+ * Open addressing hash table for DNS requests waiting for a matching response. The key consists of
+ * the DNS id, client port, client address and qname. The id and port are packed together with the
+ * hashes of the address and qname into primitives, the address and qname strings are only used to
+ * verify a match. No objects are created when adding, finding or removing a request.
+ * <p>
+ * The entries are kept in parallel arrays and are identified by an entry number, the entry number
+ * does not change as long as the entry is in the table.
+ * <p>
+ * To find expired entries without scanning the whole table, all entries are also linked into a
+ * timing wheel. The wheel has a bucket for each time interval (tick) and covers at least twice the
+ * expiry horizon. Expired entries are found by moving the wheel forward to the expiry time, this
+ * only visits the entries that have expired. An entry may expire up to 1 tick later than its exact
+ * expiry time. This class is not thread safe.
+ */
+public class RequestCacheTable {
+
+  public static final int NO_ENTRY = -1;
+
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final long DEFAULT_HORIZON = 2000;
+  private static final int WHEEL_SLOTS = 64;
+  // marker for entries that are in use, free entries link to the next free entry
+  private static final int IN_USE = -2;
+
+  // hash index, contains the entry number + 1, 0 is an empty slot
+  private int[] index;
+  private int mask;
+
+  // entry data
+  private long[] keys;
+  private int[] qnameHashes;
+  private String[] srcs;
+  private String[] qnames;
+  private long[] times;
+  private Message[] messages;
+  private Packet[] packets;
+  private int[] next;
+  // linked list of the entries in the same wheel bucket
+  private int[] wheelNext;
+  private int[] wheelPrev;
+  private int[] wheelBuckets;
+
+  // timing wheel, first entry of each bucket
+  private final int[] wheel = new int[WHEEL_SLOTS];
+  private final long tick;
+  // start time of the current wheel bucket
+  private long wheelTime = Long.MIN_VALUE;
+
+  private int freeHead = NO_ENTRY;
+  // entries >= limit have never been used
+  private int limit;
+  private int size;
+
+  public RequestCacheTable() {
+    this(DEFAULT_CAPACITY, DEFAULT_HORIZON);
+  }
+
+  /**
+   * Create new table
+   *
+   * @param capacity initial number of entries
+   * @param horizon the max age (ms) of entries, before they are expired
+   */
+  public RequestCacheTable(int capacity, long horizon) {
+    int entries = Math.max(16, capacity);
+    // the wheel covers at least 2 * horizon
+    tick = Math.max(1, horizon / (WHEEL_SLOTS / 2));
+    Arrays.fill(wheel, NO_ENTRY);
+
+    keys = new long[entries];
+    qnameHashes = new int[entries];
+    srcs = new String[entries];
+    qnames = new String[entries];
+    times = new long[entries];
+    messages = new Message[entries];
+    packets = new Packet[entries];
+    next = new int[entries];
+    wheelNext = new int[entries];
+    wheelPrev = new int[entries];
+    wheelBuckets = new int[entries];
+
+    index = new int[indexSize(entries)];
+    mask = index.length - 1;
+  }
+
+  private static int indexSize(int entries) {
+    // keep load factor of index <= 0.5
+    return Integer.highestOneBit(entries * 2 - 1) << 1;
+  }
+
+  private static long pack(int id, int port, int srcHash) {
+    return ((long) (id & 0xFFFF) << 48) | ((long) (port & 0xFFFF) << 32)
+        | (srcHash & 0xFFFFFFFFL);
+  }
+
+  private static int hash(String s) {
+    return s == null ? 0 : s.hashCode();
+  }
+
+  private int slot(long key, int qnameHash) {
+    int h = Long.hashCode(key) * 31 + qnameHash;
+    // spread the bits, the index only uses the lower bits
+    h *= 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  /**
+   * Find the entry for a request
+   *
+   * @param id the DNS id
+   * @param port the client port
+   * @param src the client address
+   * @param qname the qname, may be null
+   * @return the entry number or {@link #NO_ENTRY} when not found
+   */
+  public int find(int id, int port, String src, String qname) {
+    long key = pack(id, port, hash(src));
+    int qnameHash = hash(qname);
+
+    for (int slot = slot(key, qnameHash);; slot = (slot + 1) & mask) {
+      int e = index[slot] - 1;
+      if (e == NO_ENTRY) {
+        return NO_ENTRY;
+      }
+
+      if (keys[e] == key && qnameHashes[e] == qnameHash && Objects.equals(srcs[e], src)
+          && Objects.equals(qnames[e], qname)) {
+        return e;
+      }
+    }
+  }
+
+  /**
+   * Add a request to the table, an existing entry with the same key is replaced
+   *
+   * @return the entry number
+   */
+  public int put(int id, int port, String src, String qname, long time, Message message,
+      Packet packet) {
+
+    int e = find(id, port, src, qname);
+    if (e == NO_ENTRY) {
+      e = allocate();
+      keys[e] = pack(id, port, hash(src));
+      qnameHashes[e] = hash(qname);
+      srcs[e] = src;
+      qnames[e] = qname;
+      insert(e);
+      size++;
+    } else {
+      unlink(e);
+    }
+
+    times[e] = time;
+    messages[e] = message;
+    packets[e] = packet;
+    link(e);
+    return e;
+  }
+
+  private int allocate() {
+    if (freeHead != NO_ENTRY) {
+      int e = freeHead;
+      freeHead = next[e];
+      next[e] = IN_USE;
+      return e;
+    }
+
+    if (limit == keys.length) {
+      grow();
+    }
+
+    next[limit] = IN_USE;
+    return limit++;
+  }
+
+  private void insert(int e) {
+    int slot = slot(keys[e], qnameHashes[e]);
+    while (index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = e + 1;
+  }
+
+  private void grow() {
+    int capacity = keys.length * 2;
+
+    keys = Arrays.copyOf(keys, capacity);
+    qnameHashes = Arrays.copyOf(qnameHashes, capacity);
+    srcs = Arrays.copyOf(srcs, capacity);
+    qnames = Arrays.copyOf(qnames, capacity);
+    times = Arrays.copyOf(times, capacity);
+    messages = Arrays.copyOf(messages, capacity);
+    packets = Arrays.copyOf(packets, capacity);
+    next = Arrays.copyOf(next, capacity);
+    wheelNext = Arrays.copyOf(wheelNext, capacity);
+    wheelPrev = Arrays.copyOf(wheelPrev, capacity);
+    wheelBuckets = Arrays.copyOf(wheelBuckets, capacity);
+
+    // rebuild the index
+    index = new int[indexSize(capacity)];
+    mask = index.length - 1;
+    for (int e = 0; e < limit; e++) {
+      if (next[e] == IN_USE) {
+        insert(e);
+      }
+    }
+  }
+
+  /**
+   * Remove entry from the table, the entry number may be reused by a new entry
+   *
+   * @param e the entry number
+   */
+  public void remove(int e) {
+    int hole = slot(keys[e], qnameHashes[e]);
+    while (index[hole] != e + 1) {
+      hole = (hole + 1) & mask;
+    }
+
+    // shift the following entries back, so there are no gaps between an entry and its home slot
+    for (int slot = (hole + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+      int other = index[slot] - 1;
+      int home = slot(keys[other], qnameHashes[other]);
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        index[hole] = index[slot];
+        hole = slot;
+      }
+    }
+    index[hole] = 0;
+    unlink(e);
+
+    // release the references to the packet data
+    srcs[e] = null;
+    qnames[e] = null;
+    messages[e] = null;
+    packets[e] = null;
+    next[e] = freeHead;
+    freeHead = e;
+    size--;
+  }
+
+  public void clear() {
+    Arrays.fill(index, 0);
+    Arrays.fill(wheel, NO_ENTRY);
+    wheelTime = Long.MIN_VALUE;
+    Arrays.fill(srcs, 0, limit, null);
+    Arrays.fill(qnames, 0, limit, null);
+    Arrays.fill(messages, 0, limit, null);
+    Arrays.fill(packets, 0, limit, null);
+    freeHead = NO_ENTRY;
+    limit = 0;
+    size = 0;
+  }
+
+  private int bucket(long time) {
+    return (int) (Math.floorDiv(time, tick) & (WHEEL_SLOTS - 1));
+  }
+
+  /**
+   * Add entry to the wheel bucket for the time of the entry. Entries older than the current bucket
+   * are added to the current bucket and entries too far in the future are added to the last
+   * bucket, these entries are moved to the correct bucket when the wheel moves forward.
+   */
+  private void link(int e) {
+    long time = times[e];
+    if (wheelTime == Long.MIN_VALUE) {
+      // first entry, start the wheel half a rotation before the entry to leave room for entries
+      // that are added out of order
+      wheelTime = Math.floorDiv(time, tick) * tick - (WHEEL_SLOTS / 2) * tick;
+    }
+
+    int b;
+    if (time < wheelTime) {
+      b = bucket(wheelTime);
+    } else if (time >= wheelTime + WHEEL_SLOTS * tick) {
+      b = bucket(wheelTime + (WHEEL_SLOTS - 1) * tick);
+    } else {
+      b = bucket(time);
+    }
+
+    wheelBuckets[e] = b;
+    wheelPrev[e] = NO_ENTRY;
+    wheelNext[e] = wheel[b];
+    if (wheel[b] != NO_ENTRY) {
+      wheelPrev[wheel[b]] = e;
+    }
+    wheel[b] = e;
+  }
+
+  private void unlink(int e) {
+    if (wheelPrev[e] != NO_ENTRY) {
+      wheelNext[wheelPrev[e]] = wheelNext[e];
+    } else {
+      wheel[wheelBuckets[e]] = wheelNext[e];
+    }
+
+    if (wheelNext[e] != NO_ENTRY) {
+      wheelPrev[wheelNext[e]] = wheelPrev[e];
+    }
+  }
+
+  /**
+   * Find the next expired entry, the entry is not removed from the table. Call this method until it
+   * returns {@link #NO_ENTRY} and remove each returned entry.
+   *
+   * @param max entries with a time before max are expired
+   * @return the expired entry or {@link #NO_ENTRY} when no more entries have expired
+   */
+  public int nextExpired(long max) {
+    if (size == 0) {
+      // nothing to expire
+      return NO_ENTRY;
+    }
+
+    if (max - wheelTime >= WHEEL_SLOTS * tick) {
+      // the time moved further than the wheel covers, restart the wheel with the current bucket
+      // ending at max and add all entries to the wheel again
+      wheelTime = Math.floorDiv(max, tick) * tick - tick;
+      Arrays.fill(wheel, NO_ENTRY);
+      for (int e = 0; e < limit; e++) {
+        if (next[e] == IN_USE) {
+          link(e);
+        }
+      }
+    }
+
+    // only visit buckets that have ended before max
+    while (wheelTime + tick <= max) {
+      int b = bucket(wheelTime);
+      for (int e = wheel[b]; e != NO_ENTRY; e = wheelNext[e]) {
+        if (times[e] < max) {
+          return e;
+        }
+      }
+
+      // all expired entries from the current bucket are removed, move the wheel 1 tick forward and
+      // add the remaining entries (too far in the future) to the correct bucket
+      int e = wheel[b];
+      wheel[b] = NO_ENTRY;
+      wheelTime += tick;
+      while (e != NO_ENTRY) {
+        int n = wheelNext[e];
+        link(e);
+        e = n;
+      }
+    }
+
+    return NO_ENTRY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Upper bound for entry numbers, use together with {@link #isUsed(int)} to iterate over all
+   * entries.
+   *
+   * @return all entry numbers are smaller than the limit
+   */
+  public int limit() {
+    return limit;
+  }
+
+  public boolean isUsed(int e) {
+    return e < limit && next[e] == IN_USE;
+  }
+
+  public int id(int e) {
+    return (int) (keys[e] >>> 48) & 0xFFFF;
+  }
+
+  public int port(int e) {
+    return (int) (keys[e] >>> 32) & 0xFFFF;
+  }
+
+  public String src(int e) {
+    return srcs[e];
+  }
+
+  public String qname(int e) {
+    return qnames[e];
+  }
+
+  public long time(int e) {
+    return times[e];
+  }
+
+  public Message message(int e) {
+    return messages[e];
+  }
+
+  public Packet packet(int e) {
+    return packets[e];
+  }
+
+}
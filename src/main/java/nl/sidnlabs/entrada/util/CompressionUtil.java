@@ -1,16 +1,31 @@
 package nl.sidnlabs.entrada.util;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.tukaani.xz.XZInputStream;
 import nl.sidnlabs.entrada.exception.ApplicationException;
 
 public class CompressionUtil {
 
+  /**
+   * Extensions of the supported input files, uncompressed pcap and compressed pcap files
+   */
+  public static final String[] EXTENSIONS = {".pcap", ".gz", ".xz", ".bz2", ".zst", ".lz4"};
+
+  private static final String ZSTD = ".zst";
+
   private CompressionUtil() {}
 
   /**
@@ -35,6 +50,11 @@ public class CompressionUtil {
       return new XZInputStream(wrap(in, bufSize));
     } else if (StringUtils.endsWithIgnoreCase(filename, ".bz2")) {
       return new BZip2CompressorInputStream(wrap(in, bufSize), true);
+    } else if (StringUtils.endsWithIgnoreCase(filename, ZSTD)) {
+      return new ZstdCompressorInputStream(wrap(in, bufSize));
+    } else if (StringUtils.endsWithIgnoreCase(filename, ".lz4")) {
+      // lz4 frame format, as created by the lz4 command line tool
+      return new FramedLZ4CompressorInputStream(wrap(in, bufSize), true);
     }
 
     // unkown file type
@@ -49,4 +69,39 @@ public class CompressionUtil {
     return in;
   }
 
+  public static boolean isZstd(String filename) {
+    return StringUtils.endsWithIgnoreCase(filename, ZSTD);
+  }
+
+  /**
+   * Get the name of the zstd compressed version of a file, any compression extension is replaced
+   * with .zst e.g. dns.pcap.gz becomes dns.pcap.zst
+   */
+  public static String zstdFilename(String filename) {
+    for (String ext : EXTENSIONS) {
+      if (!".pcap".equals(ext) && StringUtils.endsWithIgnoreCase(filename, ext)) {
+        return StringUtils.removeEndIgnoreCase(filename, ext) + ZSTD;
+      }
+    }
+    return filename + ZSTD;
+  }
+
+  /**
+   * Decompress a local pcap file and compress the pcap data using zstd
+   *
+   * @param src local pcap file, compressed or uncompressed
+   * @param dst name of zstd file to create
+   * @param level zstd compression level
+   * @param bufSize size of the read buffer to use, in bytes
+   * @throws IOException when the file cannot be (re)compressed
+   */
+  public static void zstd(String src, String dst, int level, int bufSize) throws IOException {
+    try (InputStream in =
+        getDecompressorStreamWrapper(Files.newInputStream(Paths.get(src)), bufSize, src);
+        OutputStream out = new ZstdCompressorOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(Paths.get(dst)), bufSize), level)) {
+      IOUtils.copy(in, out, bufSize);
+    }
+  }
+
 }
@@ -20,6 +20,7 @@
 package nl.sidnlabs.entrada.util;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Iterator;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -61,7 +62,12 @@ public class FileUtil {
 
     Iterator<File> files;
     try {
-      files = FileUtils.iterateFiles(f, new String[] {"pcap", ".gz", ".xz", ".bz2"}, false);
+      // extensions without the dot
+      String[] extensions = Arrays
+          .stream(CompressionUtil.EXTENSIONS)
+          .map(e -> StringUtils.removeStart(e, "."))
+          .toArray(String[]::new);
+      files = FileUtils.iterateFiles(f, extensions, false);
       while (files.hasNext()) {
         files.next();
         filecount++;
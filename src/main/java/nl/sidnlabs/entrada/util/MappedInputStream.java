@@ -0,0 +1,113 @@
+package nl.sidnlabs.entrada.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * InputStream for a local file that reads from a memory mapped region of the file instead of
+ * using read system calls. The file is mapped in windows of a fixed size, a window is released
+ * when the next window is mapped. No extra buffering is needed when using this stream.
+ */
+public class MappedInputStream extends InputStream {
+
+  private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final long size;
+  private final long windowSize;
+  // file position of the start of the current window
+  private long windowStart;
+  private MappedByteBuffer window;
+
+  public MappedInputStream(Path file) throws IOException {
+    this(file, WINDOW_SIZE);
+  }
+
+  MappedInputStream(Path file, long windowSize) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    this.size = channel.size();
+    this.windowSize = windowSize;
+    map(0);
+  }
+
+  private void map(long start) throws IOException {
+    windowStart = start;
+    window = channel.map(MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+  }
+
+  /**
+   * @return false when the end of the file has been reached
+   */
+  private boolean ensureAvailable() throws IOException {
+    ensureOpen();
+    if (window.hasRemaining()) {
+      return true;
+    }
+
+    long next = windowStart + window.capacity();
+    if (next >= size) {
+      return false;
+    }
+    map(next);
+    return true;
+  }
+
+  private void ensureOpen() throws IOException {
+    if (window == null) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    return window.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureAvailable()) {
+      return -1;
+    }
+
+    int n = Math.min(len, window.remaining());
+    window.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    ensureOpen();
+    long pos = windowStart + window.position();
+    long skip = Math.max(0, Math.min(n, size - pos));
+    if (skip <= window.remaining()) {
+      window.position(window.position() + (int) skip);
+    } else {
+      map(pos + skip);
+    }
+    return skip;
+  }
+
+  @Override
+  public int available() throws IOException {
+    ensureOpen();
+    return (int) Math.min(Integer.MAX_VALUE, size - windowStart - window.position());
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+  }
+
+}
@@ -0,0 +1,149 @@
+package nl.sidnlabs.entrada.util;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Decompresses the blocks of a multi-block xz file (e.g. created using "xz -T") in parallel. Each
+ * block is decompressed by a separate task using its own decoder, the blocks are returned in file
+ * order. The number of decompressed blocks kept in memory is limited to the number of threads + 1.
+ */
+public class ParallelXZInputStream extends InputStream {
+
+  private final File file;
+  private final int blockCount;
+  private final ExecutorService executor;
+  private final Deque<Future<byte[]>> blocks = new ArrayDeque<>();
+
+  private int nextBlock;
+  private byte[] current;
+  private int position;
+  private boolean closed;
+
+  private ParallelXZInputStream(File file, int blockCount, int threads) {
+    this.file = file;
+    this.blockCount = blockCount;
+    this.executor = Executors
+        .newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("entrada-xz-%d").setDaemon(true).build());
+
+    for (int i = 0; i <= threads; i++) {
+      submitNext();
+    }
+  }
+
+  /**
+   * Open the file for parallel decompression
+   *
+   * @param file xz file
+   * @param threads number of decompression threads
+   * @return stream or null when the file contains a single block or blocks that are too large to
+   *         decompress into a single array
+   * @throws IOException when the xz index cannot be read
+   */
+  public static InputStream open(File file, int threads) throws IOException {
+    try (SeekableXZInputStream xz = new SeekableXZInputStream(new SeekableFileInputStream(file))) {
+      if (xz.getBlockCount() < 2) {
+        return null;
+      }
+      for (int i = 0; i < xz.getBlockCount(); i++) {
+        if (xz.getBlockSize(i) > Integer.MAX_VALUE - 8) {
+          return null;
+        }
+      }
+      return new ParallelXZInputStream(file, xz.getBlockCount(), threads);
+    }
+  }
+
+  private void submitNext() {
+    if (nextBlock < blockCount) {
+      int block = nextBlock++;
+      blocks.add(executor.submit(() -> decompress(block)));
+    }
+  }
+
+  private byte[] decompress(int block) throws IOException {
+    try (SeekableXZInputStream xz = new SeekableXZInputStream(new SeekableFileInputStream(file))) {
+      xz.seekToBlock(block);
+      byte[] data = new byte[(int) xz.getBlockSize(block)];
+      new DataInputStream(xz).readFully(data);
+      return data;
+    }
+  }
+
+  /**
+   * @return false when all blocks have been read
+   */
+  private boolean next() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+
+    while (current == null || position == current.length) {
+      Future<byte[]> f = blocks.poll();
+      if (f == null) {
+        return false;
+      }
+
+      try {
+        current = f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while decompressing: " + file, e);
+      } catch (ExecutionException e) {
+        throw new IOException("Error while decompressing: " + file, e.getCause());
+      }
+      position = 0;
+      submitNext();
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!next()) {
+      return -1;
+    }
+    return current[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!next()) {
+      return -1;
+    }
+
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current != null ? current.length - position : 0;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    current = null;
+    blocks.clear();
+    executor.shutdownNow();
+  }
+
+}
@@ -0,0 +1,175 @@
+package nl.sidnlabs.entrada.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Reads the wrapped stream on a separate thread, e.g. to decompress the input on another core
+ * than the thread parsing the data. The data is passed in chunks using a bounded queue, the
+ * reading thread blocks when the queue is full. The chunk buffers are reused.
+ */
+@Log4j2
+public class ReadAheadInputStream extends InputStream {
+
+  public static final int CHUNK_SIZE = 1024 * 1024;
+
+  private static final Chunk EOF = new Chunk(new byte[0]);
+
+  private final InputStream in;
+  private final BlockingQueue<Chunk> chunks;
+  private final BlockingQueue<Chunk> free;
+  private final Thread reader;
+
+  private Chunk current;
+  private int position;
+  private volatile IOException error;
+  private volatile boolean closed;
+
+  private static final class Chunk {
+    private final byte[] data;
+    private int length;
+
+    private Chunk(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  /**
+   * @param in stream to read
+   * @param name name of the reading thread
+   * @param queueSize max number of chunks read ahead
+   */
+  public ReadAheadInputStream(InputStream in, String name, int queueSize) {
+    this.in = in;
+    this.chunks = new ArrayBlockingQueue<>(queueSize + 1);
+    this.free = new ArrayBlockingQueue<>(queueSize + 2);
+    this.reader = new Thread(this::readAll, name);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void readAll() {
+    try {
+      while (!closed) {
+        Chunk c = free.poll();
+        if (c == null) {
+          c = new Chunk(new byte[CHUNK_SIZE]);
+        }
+
+        c.length = fill(c.data);
+        if (c.length == 0) {
+          break;
+        }
+        chunks.put(c);
+      }
+    } catch (IOException e) {
+      if (!closed) {
+        error = e;
+      }
+    } catch (InterruptedException e) {
+      // stream has been closed
+      return;
+    }
+
+    try {
+      chunks.put(EOF);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private int fill(byte[] data) throws IOException {
+    int length = 0;
+    while (length < data.length) {
+      int n = in.read(data, length, data.length - length);
+      if (n == -1) {
+        break;
+      }
+      length += n;
+    }
+    return length;
+  }
+
+  /**
+   * @return false when all data has been read
+   */
+  private boolean next() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (current == EOF) {
+      return false;
+    }
+    if (current != null && position < current.length) {
+      return true;
+    }
+
+    if (current != null) {
+      free.offer(current);
+    }
+    try {
+      current = chunks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for data", e);
+    }
+    position = 0;
+
+    if (current == EOF) {
+      if (error != null) {
+        throw error;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!next()) {
+      return -1;
+    }
+    return current.data[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!next()) {
+      return -1;
+    }
+
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current.data, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current != null && current != EOF ? current.length - position : 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted while waiting for read ahead thread to stop");
+    }
+    in.close();
+  }
+
+}
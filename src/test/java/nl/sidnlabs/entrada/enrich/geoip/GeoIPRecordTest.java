@@ -0,0 +1,26 @@
+package nl.sidnlabs.entrada.enrich.geoip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+import nl.sidnlabs.entrada.enrich.geoip.GeoIPServiceImpl.AsnRecord;
+
+public class GeoIPRecordTest {
+
+  @Test
+  public void testLookupResultIsReused() {
+    AsnRecord record = new AsnRecord(Long.valueOf(1140), "SIDN");
+
+    GeoIPInfo nl = record.info("NL");
+    assertEquals(new GeoIPInfo("NL", "1140", "SIDN"), nl);
+    assertSame(nl, record.info("NL"));
+
+    // another country for the same network creates a new result
+    GeoIPInfo de = record.info("DE");
+    assertNotSame(nl, de);
+    assertEquals(new GeoIPInfo("DE", "1140", "SIDN"), de);
+    assertEquals(new GeoIPInfo(null, "1140", "SIDN"), record.info(null));
+  }
+
+}
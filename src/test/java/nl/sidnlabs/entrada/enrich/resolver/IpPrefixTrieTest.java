@@ -0,0 +1,86 @@
+package nl.sidnlabs.entrada.enrich.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.net.InetAddress;
+import org.junit.jupiter.api.Test;
+import com.google.common.net.InetAddresses;
+
+public class IpPrefixTrieTest {
+
+  private static int lookup(IpPrefixTrie trie, String address) {
+    InetAddress addr = InetAddresses.forString(address);
+    return trie.lookup(address, addr);
+  }
+
+  @Test
+  public void testLongestPrefix() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    assertTrue(trie.add("9.9.9.0/24", 1));
+    assertTrue(trie.add("9.9.9.9/32", 2));
+    assertTrue(trie.add("2620:fe::/48", 3));
+    // host bits are ignored
+    assertTrue(trie.add("74.125.114.200/26", 4));
+
+    assertEquals(1, lookup(trie, "9.9.9.10"));
+    assertEquals(2, lookup(trie, "9.9.9.9"));
+    assertEquals(IpPrefixTrie.NO_MATCH, lookup(trie, "9.9.10.1"));
+    assertEquals(4, lookup(trie, "74.125.114.192"));
+    assertEquals(4, lookup(trie, "74.125.114.255"));
+    assertEquals(IpPrefixTrie.NO_MATCH, lookup(trie, "74.125.114.191"));
+    assertEquals(3, lookup(trie, "2620:fe:0:1::9"));
+    assertEquals(IpPrefixTrie.NO_MATCH, lookup(trie, "2620:ff::9"));
+    // IPv4 and IPv6 prefixes are separate
+    assertEquals(IpPrefixTrie.NO_MATCH, lookup(trie, "909:909::"));
+    assertEquals(4, trie.size());
+  }
+
+  @Test
+  public void testFirstValueWins() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    trie.add("8.8.8.0/24", 0);
+    trie.add("8.8.8.0/24", 1);
+
+    assertEquals(0, lookup(trie, "8.8.8.8"));
+    assertEquals(1, trie.size());
+  }
+
+  @Test
+  public void testLowestValue() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    trie.add("8.8.0.0/16", 0);
+    trie.add("8.8.8.0/24", 1);
+    trie.add("2001:db8:1::/48", 1);
+    trie.add("2001:db8::/32", 2);
+
+    assertEquals(0, trie.lookupLowest("8.8.8.8", InetAddresses.forString("8.8.8.8")));
+    assertEquals(1, lookup(trie, "8.8.8.8"));
+    assertEquals(1, trie.lookupLowest("2001:db8:1::1", InetAddresses.forString("2001:db8:1::1")));
+    assertEquals(2, trie.lookupLowest("2001:db8:2::1", InetAddresses.forString("2001:db8:2::1")));
+    assertEquals(IpPrefixTrie.NO_MATCH,
+        trie.lookupLowest("9.9.9.9", InetAddresses.forString("9.9.9.9")));
+  }
+
+  @Test
+  public void testInvalidSubnet() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    assertFalse(trie.add("8.8.8.0", 0));
+    assertFalse(trie.add("8.8.8.0/33", 0));
+    assertFalse(trie.add("8.8.8/24", 0));
+    assertFalse(trie.add("resolver/24", 0));
+  }
+
+  @Test
+  public void testManyPrefixes() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    for (int i = 0; i < 256; i++) {
+      trie.add("10." + i + ".0.0/16", i);
+    }
+
+    for (int i = 0; i < 256; i++) {
+      assertEquals(i, lookup(trie, "10." + i + ".1.2"));
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+package nl.sidnlabs.entrada.enrich.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import com.google.common.net.InetAddresses;
+
+public class ResolverEnrichmentTest {
+
+  private static DnsResolverCheck check(String name, String... subnets) {
+    return new DnsResolverCheck() {
+
+      @Override
+      public void init() {}
+
+      @Override
+      public String getName() {
+        return name;
+      }
+
+      @Override
+      public boolean match(String address, InetAddress inetAddress) {
+        return false;
+      }
+
+      @Override
+      public int getMatcherCount() {
+        return subnets.length;
+      }
+
+      @Override
+      public List<String> getSubnets() {
+        return Arrays.asList(subnets);
+      }
+
+      @Override
+      public void done() {}
+    };
+  }
+
+  private static String match(ResolverEnrichment enrichment, String address) {
+    return enrichment.match(address, InetAddresses.forString(address));
+  }
+
+  @Test
+  public void testFirstCheckWins() {
+    ResolverEnrichment enrichment = new ResolverEnrichment(Arrays
+        .asList(check("first", "8.8.0.0/16", "2001:db8::/32"),
+            check("second", "8.8.8.0/24", "9.9.9.0/24", "2001:db8:1::/48")));
+
+    // the prefix of the second check is longer, but the first check matches the address too
+    assertEquals("first", match(enrichment, "8.8.8.8"));
+    assertEquals("first", match(enrichment, "2001:db8:1::1"));
+    assertEquals("second", match(enrichment, "9.9.9.9"));
+    assertNull(match(enrichment, "1.1.1.1"));
+  }
+
+}
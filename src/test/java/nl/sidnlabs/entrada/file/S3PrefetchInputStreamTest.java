@@ -0,0 +1,170 @@
+package nl.sidnlabs.entrada.file;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+public class S3PrefetchInputStreamTest {
+
+  private static final int PART_SIZE = 10;
+
+  private final byte[] data = new byte[95];
+  private AmazonS3 amazonS3;
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void setup() {
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    amazonS3 = mock(AmazonS3.class);
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterEach
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  private S3Object object(GetObjectRequest request) {
+    long[] range = request.getRange();
+    S3Object o = new S3Object();
+    o.setObjectContent(new ByteArrayInputStream(
+        Arrays.copyOfRange(data, (int) range[0], (int) range[1] + 1)));
+    return o;
+  }
+
+  private void answer(Answer<S3Object> answer) {
+    when(amazonS3.getObject(any(GetObjectRequest.class))).thenAnswer(answer);
+  }
+
+  private S3PrefetchInputStream stream(int maxParts, ExecutorService executor) {
+    return new S3PrefetchInputStream(amazonS3, "bucket", "key", data.length, PART_SIZE, maxParts,
+        executor);
+  }
+
+  @Test
+  public void testPartsAreReadInOrder() throws IOException {
+    answer(inv -> {
+      GetObjectRequest request = inv.getArgument(0);
+      // the first parts are downloaded slower than the parts after them
+      Thread.sleep(Math.max(0, 50 - request.getRange()[0]));
+      return object(request);
+    });
+
+    try (S3PrefetchInputStream in = stream(4, executor)) {
+      assertArrayEquals(data, IOUtils.toByteArray(in));
+      assertEquals(-1, in.read());
+    }
+    verify(amazonS3, times(10)).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test
+  public void testFailedPartIsRetried() throws IOException {
+    Map<Long, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    answer(inv -> {
+      GetObjectRequest request = inv.getArgument(0);
+      Long start = Long.valueOf(request.getRange()[0]);
+      // the third part fails twice
+      if (start.longValue() == 20
+          && attempts.computeIfAbsent(start, s -> new AtomicInteger()).incrementAndGet() < 3) {
+        throw new SdkClientException("connection reset");
+      }
+      return object(request);
+    });
+
+    try (S3PrefetchInputStream in = stream(4, executor)) {
+      assertArrayEquals(data, IOUtils.toByteArray(in));
+    }
+    verify(amazonS3, times(12)).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test
+  public void testPartFailsAfterMaxAttempts() {
+    answer(inv -> {
+      GetObjectRequest request = inv.getArgument(0);
+      if (request.getRange()[0] == 20) {
+        throw new SdkClientException("connection reset");
+      }
+      return object(request);
+    });
+
+    S3PrefetchInputStream in = stream(4, executor);
+    assertThrows(IOException.class, () -> IOUtils.toByteArray(in));
+    in.close();
+  }
+
+  @Test
+  public void testCloseCancelsPendingParts() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    answer(inv -> {
+      started.countDown();
+      release.await(10, TimeUnit.SECONDS);
+      return object(inv.getArgument(0));
+    });
+
+    // a single thread, the parts after the first part wait for the thread
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    S3PrefetchInputStream in = stream(4, single);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    in.close();
+    release.countDown();
+    single.shutdown();
+    assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+
+    verify(amazonS3, times(1)).getObject(any(GetObjectRequest.class));
+    assertThrows(IOException.class, in::read);
+  }
+
+  @Test
+  public void testResumeDoesNotWaitForPreviousExecutor() throws Exception {
+    answer(inv -> object(inv.getArgument(0)));
+
+    // the prefetch thread is busy, the first part waits for it
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService prefetch = Executors.newSingleThreadExecutor();
+    prefetch.execute(() -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    try (S3PrefetchInputStream in = stream(1, prefetch)) {
+      in.resume(executor, 4);
+      assertArrayEquals(data, IOUtils.toByteArray(in));
+    } finally {
+      release.countDown();
+      prefetch.shutdown();
+    }
+    verify(amazonS3, times(10)).getObject(any(GetObjectRequest.class));
+  }
+
+}
@@ -0,0 +1,98 @@
+package nl.sidnlabs.entrada.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import nl.sidnlabs.entrada.file.FileManager;
+
+public class InputDiscoveryTest {
+
+  private static final String SERVER = "ns1";
+  private static final String LOCATION = "s3://bucket/input/ns1/";
+
+  @TempDir
+  Path dir;
+
+  private FileManager fm;
+
+  @BeforeEach
+  public void setup() {
+    fm = mock(FileManager.class);
+    when(fm.isLocal()).thenReturn(Boolean.FALSE);
+    when(fm.files(LOCATION, false)).thenReturn(Arrays.asList(file("a"), file("b"), file("c")));
+    when(fm.filesAfter(LOCATION, file("c"))).thenReturn(Collections.singletonList(file("d")));
+  }
+
+  private static String file(String name) {
+    return LOCATION + name + ".pcap";
+  }
+
+  private InputDiscovery discovery() {
+    InputDiscovery discovery = new InputDiscovery();
+    ReflectionTestUtils.setField(discovery, "workLocation", dir.toString());
+    ReflectionTestUtils.setField(discovery, "rescanInterval", Integer.valueOf(60));
+    return discovery;
+  }
+
+  private Path cursorFile() {
+    return dir.resolve("input-cursor-" + SERVER + ".txt");
+  }
+
+  private String cursor() throws IOException {
+    return new String(Files.readAllBytes(cursorFile()), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testCursorMovesWhenFilesAreSaved() throws IOException {
+    InputDiscovery discovery = discovery();
+    assertEquals(Arrays.asList(file("a"), file("b"), file("c")),
+        discovery.scan(SERVER, fm, LOCATION));
+
+    // processed files are only used for the cursor when saved to the database
+    discovery.done(SERVER, file("a"));
+    assertFalse(Files.exists(cursorFile()));
+    discovery.saved(SERVER, Collections.singletonList(file("a")));
+    assertEquals(file("a"), cursor());
+
+    // the cursor does not move past a file that has not been saved
+    discovery.done(SERVER, file("b"));
+    discovery.done(SERVER, file("c"));
+    discovery.saved(SERVER, Collections.singletonList(file("c")));
+    assertEquals(file("a"), cursor());
+
+    discovery.saved(SERVER, Collections.singletonList(file("b")));
+    assertEquals(file("c"), cursor());
+  }
+
+  @Test
+  public void testStateIsKeptBetweenRuns() {
+    InputDiscovery discovery = discovery();
+    discovery.scan(SERVER, fm, LOCATION);
+    Arrays.asList("a", "b", "c").forEach(f -> discovery.done(SERVER, file(f)));
+    discovery.saved(SERVER, Arrays.asList(file("a"), file("b"), file("c")));
+
+    // the next run only lists the files after the cursor
+    assertEquals(Collections.singletonList(file("d")), discovery.scan(SERVER, fm, LOCATION));
+
+    // after a restart the saved cursor is used instead of a full listing
+    fm = mock(FileManager.class);
+    when(fm.isLocal()).thenReturn(Boolean.FALSE);
+    when(fm.filesAfter(LOCATION, file("c"))).thenReturn(Collections.singletonList(file("d")));
+    assertEquals(Collections.singletonList(file("d")), discovery().scan(SERVER, fm, LOCATION));
+    verify(fm, never()).files(LOCATION, false);
+  }
+
+}
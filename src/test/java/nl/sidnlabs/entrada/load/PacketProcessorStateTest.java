@@ -0,0 +1,125 @@
+package nl.sidnlabs.entrada.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.sidnlabs.dnslib.types.MessageType;
+import nl.sidnlabs.entrada.load.stream.PacketJoinerImpl;
+import nl.sidnlabs.entrada.metric.HotPathMetrics;
+import nl.sidnlabs.entrada.support.RequestCacheKey;
+import nl.sidnlabs.entrada.support.RequestCacheValue;
+import nl.sidnlabs.entrada.support.RowData;
+import nl.sidnlabs.entrada.support.SyntheticPcap;
+import nl.sidnlabs.pcap.packet.DNSPacket;
+import nl.sidnlabs.pcap.packet.Packet;
+
+/**
+ * The persisted state is split over the decoders and joiners using the same selection as the
+ * partitioners of the graph, so state saved with a number of decoders or joiners can be loaded
+ * when the number has changed.
+ */
+public class PacketProcessorStateTest {
+
+  private static PacketProcessor processor(int decoders, int joiners) {
+    PacketProcessor processor = new PacketProcessor(null, null, null, null, null, null, null,
+        null, null, null, joiner(), null, null, null, null, null);
+    ReflectionTestUtils.setField(processor, "rowDecoderCount", Integer.valueOf(decoders));
+    ReflectionTestUtils.setField(processor, "joinerCount", Integer.valueOf(joiners));
+    List<PacketJoiner> list = new ArrayList<>();
+    for (int i = 0; i < joiners; i++) {
+      list.add(joiner());
+    }
+    ReflectionTestUtils.setField(processor, "joiners", list);
+    return processor;
+  }
+
+  private static PacketJoinerImpl joiner() {
+    PacketJoinerImpl joiner = new PacketJoinerImpl(new HotPathMetrics(new SimpleMeterRegistry()));
+    ReflectionTestUtils.setField(joiner, "cacheTimeoutConfig", Integer.valueOf(2));
+    ReflectionTestUtils.invokeMethod(joiner, "init");
+    return joiner;
+  }
+
+  private static int decoder(PacketProcessor processor, Packet p) {
+    return ((Integer) ReflectionTestUtils
+        .invokeMethod(processor, "decoderPartitionerSelector", p)).intValue();
+  }
+
+  private static int decoder(PacketProcessor processor, String src, String dst) {
+    return ((Integer) ReflectionTestUtils.invokeMethod(processor, "decoderIndex", src, dst))
+        .intValue();
+  }
+
+  private static int joiner(PacketProcessor processor, Packet p) {
+    return ((Integer) ReflectionTestUtils
+        .invokeMethod(processor, "joinerPartitionerSelector", p)).intValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<PacketJoiner> joiners(PacketProcessor processor) {
+    return (List<PacketJoiner>) ReflectionTestUtils.getField(processor, "joiners");
+  }
+
+  private static boolean isQuery(Packet p) {
+    return ((DNSPacket) p).getMessages().get(0).getHeader().getQr() == MessageType.QUERY;
+  }
+
+  @Test
+  public void testStateIsLoadedOnPartitionerDecoder() {
+    List<Packet> packets = SyntheticPcap.read(SyntheticPcap.create(500, 100, 1));
+    for (int decoders = 2; decoders <= 7; decoders++) {
+      PacketProcessor processor = processor(decoders, 1);
+      for (Packet p : packets) {
+        int expected = decoder(processor, p);
+        assertEquals(expected, decoder(processor, p.getSrc(), p.getDst()));
+        assertEquals(expected, decoder(processor, p.getDst(), p.getSrc()));
+      }
+
+      // the hash codes of these addresses differ by Integer.MIN_VALUE
+      int d = decoder(processor, "128.0.0.0", "0.0.0.0");
+      assertTrue(d >= 0 && d < decoders);
+      assertEquals(d, decoder(processor, "0.0.0.0", "128.0.0.0"));
+    }
+  }
+
+  @Test
+  public void testRequestCacheIsLoadedIntoMoreJoiners() {
+    List<Packet> packets = SyntheticPcap.read(SyntheticPcap.create(2000, 100, 1));
+
+    // join the queries using 3 joiners and save the merged request cache
+    PacketProcessor saved = processor(2, 3);
+    for (Packet p : packets) {
+      if (isQuery(p)) {
+        joiners(saved).get(joiner(saved, p)).join(p);
+      }
+    }
+    Map<RequestCacheKey, RequestCacheValue> state = new HashMap<>();
+    joiners(saved).forEach(j -> state.putAll(j.getRequestCache()));
+    assertTrue(state.size() > 0);
+
+    // load the state using 5 joiners, each response must find its query
+    PacketProcessor loaded = processor(2, 5);
+    ReflectionTestUtils.invokeMethod(loaded, "setRequestCache", state);
+    int responses = 0;
+    int matched = 0;
+    for (Packet p : packets) {
+      if (!isQuery(p)) {
+        responses++;
+        for (RowData row : joiners(loaded).get(joiner(loaded, p)).join(p)) {
+          if (row.getRequest() != null && row.getResponse() != null) {
+            matched++;
+          }
+        }
+      }
+    }
+    assertTrue(responses > 0);
+    assertEquals(responses, matched);
+  }
+
+}
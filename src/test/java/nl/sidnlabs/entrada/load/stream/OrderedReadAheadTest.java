@@ -0,0 +1,142 @@
+package nl.sidnlabs.entrada.load.stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+
+public class OrderedReadAheadTest {
+
+  private ActorSystem system;
+
+  @BeforeEach
+  public void setup() {
+    system = ActorSystem.create("test");
+  }
+
+  @AfterEach
+  public void teardown() {
+    system.terminate();
+  }
+
+  @Test
+  public void testOrderIsKeptWhenFirstSourceIsSlow() throws Exception {
+    AtomicBoolean secondStarted = new AtomicBoolean();
+    AtomicBoolean readAhead = new AtomicBoolean();
+
+    List<Source<Integer, NotUsed>> sources = new ArrayList<>();
+    // the first source is slow, when the sources are merged the other sources overtake it
+    sources.add(Source.range(0, 99).map(i -> {
+      if (i.intValue() == 99) {
+        // wait for the second source to start reading before the first source is done
+        long end = System.currentTimeMillis() + 5000;
+        while (!secondStarted.get() && System.currentTimeMillis() < end) {
+          Thread.sleep(10);
+        }
+        readAhead.set(secondStarted.get());
+      }
+      Thread.sleep(1);
+      return i;
+    }));
+    sources.add(Source.range(100, 199).map(i -> {
+      secondStarted.set(true);
+      return i;
+    }));
+    sources.add(Source.range(200, 299));
+
+    List<Integer> result = Source
+        .from(sources)
+        .via(OrderedReadAhead.<Integer>flow(3, 10))
+        .runWith(Sink.seq(), system)
+        .toCompletableFuture()
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(IntStream.range(0, 300).boxed().collect(Collectors.toList()), result);
+    assertTrue(readAhead.get(), "Second source must be read while the first source is read");
+  }
+
+  @Test
+  public void testNoReadAhead() throws Exception {
+    List<Source<Integer, NotUsed>> sources = new ArrayList<>();
+    sources.add(Source.range(0, 9));
+    sources.add(Source.range(10, 19));
+
+    List<Integer> result = Source
+        .from(sources)
+        .via(OrderedReadAhead.<Integer>flow(1, 10))
+        .runWith(Sink.seq(), system)
+        .toCompletableFuture()
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(IntStream.range(0, 20).boxed().collect(Collectors.toList()), result);
+  }
+
+  @Test
+  public void testDoneIsCalledInOrder() throws Exception {
+    List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+
+    List<Integer> result = Source
+        .range(0, 2)
+        .via(OrderedReadAhead
+            .<Integer, Integer>flow(i -> Source.range(i * 10, i * 10 + 9), done::add, 3, 10))
+        .runWith(Sink.seq(), system)
+        .toCompletableFuture()
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(IntStream.range(0, 30).boxed().collect(Collectors.toList()), result);
+    assertEquals(Arrays.asList(0, 1, 2), done);
+  }
+
+  @Test
+  public void testReadAheadIsCancelledWhenStreamStops() throws Exception {
+    List<CompletableFuture<Void>> terminated = new ArrayList<>();
+    AtomicInteger started = new AtomicInteger();
+    List<Source<Integer, NotUsed>> sources = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      CompletableFuture<Void> f = new CompletableFuture<>();
+      terminated.add(f);
+      // endless sources, the sources that are read ahead wait for room in their buffer
+      sources.add(Source.repeat(i).watchTermination((m, d) -> {
+        started.incrementAndGet();
+        d.whenComplete((r, e) -> f.complete(null));
+        return m;
+      }));
+    }
+
+    Source
+        .from(sources)
+        .via(OrderedReadAhead.<Integer>flow(3, 10))
+        // stop when all sources are running
+        .takeWhile(i -> {
+          long end = System.currentTimeMillis() + 5000;
+          while (started.get() < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+          }
+          return started.get() < 3;
+        })
+        .runWith(Sink.ignore(), system)
+        .toCompletableFuture()
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(3, started.get());
+    for (CompletableFuture<Void> f : terminated) {
+      f.get(10, TimeUnit.SECONDS);
+    }
+  }
+
+}
@@ -0,0 +1,89 @@
+package nl.sidnlabs.entrada.load.stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.sidnlabs.entrada.metric.HotPathMetrics;
+import nl.sidnlabs.entrada.support.RowData;
+import nl.sidnlabs.entrada.support.SyntheticPcap;
+import nl.sidnlabs.pcap.packet.Packet;
+
+public class PacketJoinerImplTest {
+
+  private static final int PAIRS = 2000;
+
+  private PacketJoinerImpl joiner() {
+    PacketJoinerImpl joiner = new PacketJoinerImpl(new HotPathMetrics(new SimpleMeterRegistry()));
+    ReflectionTestUtils.setField(joiner, "cacheTimeoutConfig", Integer.valueOf(2));
+    ReflectionTestUtils.invokeMethod(joiner, "init");
+    return joiner;
+  }
+
+  private List<RowData> join(List<Packet> packets) {
+    PacketJoinerImpl joiner = joiner();
+    List<RowData> rows = new ArrayList<>();
+    for (Packet p : packets) {
+      rows.addAll(joiner.join(p));
+    }
+    rows.addAll(joiner.join(Packet.LAST));
+    return rows;
+  }
+
+  private long matched(List<RowData> rows) {
+    return rows.stream().filter(r -> r.getRequest() != null && r.getResponse() != null).count();
+  }
+
+  private long orphans(List<RowData> rows) {
+    return rows.stream().filter(r -> r.getRequest() == null && r.getResponse() != null).count();
+  }
+
+  @Test
+  public void testCacheShrinksWhileReadingNextFile() {
+    // the files of a batch are joined in order, Packet.LAST is only sent after the last file
+    List<Packet> first = SyntheticPcap.read(SyntheticPcap.create(PAIRS, 100, 1), "first.pcap");
+    List<Packet> second = SyntheticPcap
+        .read(SyntheticPcap.create(PAIRS, 100, 2, SyntheticPcap.START_MICROS + 10_000_000L),
+            "second.pcap");
+    long expected = matched(join(first)) + matched(join(second));
+    assertTrue(expected > 0);
+
+    PacketJoinerImpl joiner = joiner();
+    List<RowData> rows = new ArrayList<>();
+    first.forEach(p -> rows.addAll(joiner.join(p)));
+    int size = joiner.getRequestCache().size();
+    assertTrue(size > 0);
+
+    // the queries of the first file without a response expire when the second file is read
+    rows.addAll(joiner.join(second.get(0)));
+    assertTrue(joiner.getRequestCache().size() < size);
+    assertTrue(joiner.getRequestCache().size() <= 1);
+
+    second.stream().skip(1).forEach(p -> rows.addAll(joiner.join(p)));
+    rows.addAll(joiner.join(Packet.LAST));
+    assertEquals(0, orphans(rows));
+    assertEquals(expected, matched(rows));
+  }
+
+  @Test
+  public void testQueriesExpireWhenFileIsDone() {
+    List<Packet> first = SyntheticPcap.read(SyntheticPcap.create(PAIRS, 100, 1), "first.pcap");
+    List<Packet> second = SyntheticPcap
+        .read(SyntheticPcap.create(PAIRS, 100, 2, SyntheticPcap.START_MICROS + 10_000_000L),
+            "second.pcap");
+
+    PacketJoinerImpl joiner = joiner();
+    first.forEach(joiner::join);
+    joiner.join(Packet.LAST);
+    // queries without a response are kept, the response may be in the next file
+    assertTrue(joiner.getRequestCache().size() > 0);
+
+    // the first file is done, so the next file moves the watermark and expires the queries
+    joiner.join(second.get(0));
+    assertTrue(joiner.getRequestCache().size() <= 1);
+  }
+
+}
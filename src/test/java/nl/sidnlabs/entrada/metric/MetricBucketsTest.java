@@ -0,0 +1,115 @@
+package nl.sidnlabs.entrada.metric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class MetricBucketsTest {
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    MetricBuckets buckets = new MetricBuckets();
+    int query = buckets.slot("dns.query", true);
+    int rtt = buckets.slot("tcp.rtt.handshake.avg", false);
+    MetricBuckets.CodeSlots qtypes = buckets.codeSlots(0, 65536, c -> "dns.request.qtype." + c);
+
+    ExecutorService ex = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      futures.add(ex.submit(() -> {
+        for (int i = 0; i < 100000; i++) {
+          long time = i % 2 == 0 ? 60 : 120;
+          buckets.add(time, query, 1);
+          buckets.add(time, qtypes.slot(i % 300), 1);
+          buckets.addSample(time, rtt, 10);
+        }
+      }));
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    ex.shutdown();
+
+    Map<String, Long> values = new HashMap<>();
+    Map<String, Integer> samples = new HashMap<>();
+    buckets.drain((name, counter, time, value, n) -> {
+      values.merge(name + "@" + time, Long.valueOf(value), Long::sum);
+      samples.merge(name + "@" + time, Integer.valueOf(n), Integer::sum);
+    });
+
+    assertEquals(200000L, values.get("dns.query@60").longValue());
+    assertEquals(200000L, values.get("dns.query@120").longValue());
+    // a qtype is used for either even or odd values of i, 300 qtypes + query and rtt for 2 buckets
+    assertEquals(304, values.size());
+    assertEquals(4 * 334, values.get("dns.request.qtype.0@60").longValue());
+    assertEquals(2000000L, values.get("tcp.rtt.handshake.avg@60").longValue());
+    assertEquals(200000, samples.get("tcp.rtt.handshake.avg@60").intValue());
+
+    // values are reset after drain, empty buckets are removed after the second empty drain
+    values.clear();
+    buckets.drain((name, counter, time, value, n) -> values.put(name, Long.valueOf(value)));
+    assertTrue(values.isEmpty());
+    assertEquals(2, buckets.size());
+    buckets.drain((name, counter, time, value, n) -> values.put(name, Long.valueOf(value)));
+    assertTrue(values.isEmpty());
+    assertEquals(0, buckets.size());
+  }
+
+  @Test
+  public void testDrainWhileUpdating() throws Exception {
+    MetricBuckets buckets = new MetricBuckets();
+    int query = buckets.slot("dns.query", true);
+    AtomicLong drained = new AtomicLong();
+    MetricBuckets.Sink sink = (name, counter, time, value, n) -> drained.addAndGet(value);
+
+    ExecutorService ex = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      futures.add(ex.submit(() -> {
+        for (int i = 0; i < 100000; i++) {
+          // move to the next bucket every 1000 values, leaving idle buckets behind
+          buckets.add(i / 1000, query, 1);
+          if (i % 5000 == 0) {
+            Thread.yield();
+          }
+        }
+      }));
+    }
+    while (!futures.stream().allMatch(Future::isDone)) {
+      buckets.drain(sink);
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    ex.shutdown();
+    buckets.drain(sink);
+
+    assertEquals(400000L, drained.get());
+  }
+
+  @Test
+  public void testCodeOutsideRange() {
+    MetricBuckets buckets = new MetricBuckets();
+    MetricBuckets.CodeSlots rcodes = buckets.codeSlots(-1, 16, c -> "dns.request.rcode." + c);
+
+    buckets.add(60, rcodes.slot(-1), 1);
+    buckets.add(60, rcodes.slot(100), 1);
+    buckets.add(60, rcodes.slot(-5), 1);
+
+    List<String> names = new ArrayList<>();
+    buckets.drain((name, counter, time, value, n) -> names.add(name));
+    assertEquals(3, names.size());
+    assertTrue(names.contains("dns.request.rcode.-1"));
+    assertTrue(names.contains("dns.request.rcode.100"));
+    assertTrue(names.contains("dns.request.rcode.-5"));
+  }
+
+}
@@ -0,0 +1,91 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.sun.net.httpserver.HttpServer;
+
+public class InfluxExporterTest {
+
+  private HttpServer server;
+  private List<String> bodies = new CopyOnWriteArrayList<>();
+  private List<String> tokens = new CopyOnWriteArrayList<>();
+  private int status = 204;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/v2/write", exchange -> {
+      try (InputStream in = exchange.getRequestBody()) {
+        bodies.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+      }
+      tokens.add(exchange.getRequestHeaders().getFirst("Authorization"));
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterEach
+  public void teardown() {
+    server.stop(0);
+  }
+
+  private InfluxExporter exporter(String token) {
+    InfluxExporter exporter = new InfluxExporter();
+    ReflectionTestUtils.setField(exporter, "prefix", "entrada");
+    ReflectionTestUtils
+        .setField(exporter, "url", "http://127.0.0.1:" + server.getAddress().getPort()
+            + "/api/v2/write?bucket=test");
+    ReflectionTestUtils.setField(exporter, "token", token);
+    return exporter;
+  }
+
+  @Test
+  public void testLineProtocol() throws IOException {
+    exporter("secret")
+        .export(Arrays
+            .asList(new Datapoint("dns.query", "ns1", 10, 1600000000),
+                new Datapoint("dns.rtt avg", "ns,2", 1.5, 1600000060)));
+
+    assertEquals(1, bodies.size());
+    assertEquals("entrada.dns.query,ns=ns1 value=10.0 1600000000000000000\n"
+        + "entrada.dns.rtt\\ avg,ns=ns\\,2 value=1.5 1600000060000000000\n", bodies.get(0));
+    assertEquals("Token secret", tokens.get(0));
+  }
+
+  @Test
+  public void testLargeBatchIsSplit() throws IOException {
+    List<Datapoint> datapoints = new ArrayList<>();
+    for (int i = 0; i < 12000; i++) {
+      datapoints.add(new Datapoint("dns.query", "ns1", i, 1600000000L + i));
+    }
+    exporter("").export(datapoints);
+
+    assertEquals(3, bodies.size());
+    assertEquals(5000, bodies.get(0).split("\n").length);
+    assertEquals(2000, bodies.get(2).split("\n").length);
+    assertNull(tokens.get(0));
+  }
+
+  @Test
+  public void testWriteFailure() {
+    status = 400;
+    InfluxExporter exporter = exporter("");
+    List<Datapoint> datapoints = Arrays.asList(new Datapoint("dns.query", "ns1", 1, 1600000000));
+    assertThrows(IOException.class, () -> exporter.export(datapoints));
+  }
+
+}
@@ -0,0 +1,52 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+
+public class MetricSenderTest {
+
+  private static class SlowExporter implements MetricExporter {
+
+    private final List<Double> values = new CopyOnWriteArrayList<>();
+    private final List<String> threads = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String name() {
+      return "slow";
+    }
+
+    @Override
+    public void export(List<Datapoint> datapoints) {
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      threads.add(Thread.currentThread().getName());
+      values.add(Double.valueOf(datapoints.get(0).getValue()));
+    }
+  }
+
+  @Test
+  public void testBatchesAreSentInOrderWhenQueueIsFull() {
+    SlowExporter exporter = new SlowExporter();
+    MetricSender sender = new MetricSender(Collections.singletonList(exporter), "slow", 1);
+
+    List<Double> expected = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      sender.send(Collections.singletonList(new Datapoint("dns.query", "ns1", i, 1600000000)));
+      expected.add(Double.valueOf(i));
+    }
+    sender.close();
+
+    assertEquals(expected, exporter.values);
+    // the batches are never sent by the thread adding the batch
+    assertTrue(exporter.threads.stream().allMatch(t -> t.startsWith("entrada-metrics")));
+  }
+
+}
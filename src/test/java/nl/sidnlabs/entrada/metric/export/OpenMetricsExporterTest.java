@@ -0,0 +1,70 @@
+package nl.sidnlabs.entrada.metric.export;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class OpenMetricsExporterTest {
+
+  @TempDir
+  Path dir;
+
+  private OpenMetricsExporter exporter() {
+    OpenMetricsExporter exporter = new OpenMetricsExporter();
+    ReflectionTestUtils.setField(exporter, "prefix", "entrada");
+    ReflectionTestUtils.setField(exporter, "location", dir.toString());
+    return exporter;
+  }
+
+  private List<Path> files() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testMetricsAreGroupedAndSorted() throws IOException {
+    exporter()
+        .export(Arrays
+            .asList(new Datapoint("dns.query", "ns1", 2, 1600000060),
+                new Datapoint("dns.rcode.0", "ns1", 5, 1600000000),
+                new Datapoint("dns.query", "ns1", 1, 1600000000),
+                new Datapoint("dns.query", "ns\"2", 3, 1600000000)));
+
+    List<Path> files = files();
+    assertEquals(1, files.size());
+    assertTrue(files.get(0).getFileName().toString().endsWith(".om"));
+
+    List<String> lines = Files.readAllLines(files.get(0), StandardCharsets.UTF_8);
+    assertEquals(Arrays
+        .asList("# TYPE entrada_dns_query gauge",
+            "entrada_dns_query{ns=\"ns\\\"2\"} 3.0 1600000000",
+            "entrada_dns_query{ns=\"ns1\"} 1.0 1600000000",
+            "entrada_dns_query{ns=\"ns1\"} 2.0 1600000060", "# TYPE entrada_dns_rcode_0 gauge",
+            "entrada_dns_rcode_0{ns=\"ns1\"} 5.0 1600000000", "# EOF"),
+        lines);
+  }
+
+  @Test
+  public void testNewFileForEachBatch() throws IOException {
+    OpenMetricsExporter exporter = exporter();
+    exporter.export(Arrays.asList(new Datapoint("dns.query", "ns1", 1, 1600000000)));
+    exporter.export(Arrays.asList(new Datapoint("dns.query", "ns1", 2, 1600000060)));
+
+    // no temporary files are left behind
+    List<Path> files = files();
+    assertEquals(2, files.size());
+    assertTrue(files.stream().allMatch(f -> f.getFileName().toString().endsWith(".om")));
+  }
+
+}
@@ -0,0 +1,89 @@
+package nl.sidnlabs.entrada.parquet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import nl.sidnlabs.entrada.model.FieldEnum;
+
+public class GenericRecordWriteSupportTest {
+
+  @TempDir
+  java.nio.file.Path dir;
+
+  @Test
+  public void testDirectWriteSameAsAvro() throws IOException {
+    Schema schema = new Schema.Parser()
+        .parse(new ClassPathResource("/avro/dns-query.avsc", getClass()).getInputStream());
+
+    List<GenericRecord> rows = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      GenericRecord r = new GenericData.Record(schema);
+      r.put(FieldEnum.id.ordinal(), Integer.valueOf(i));
+      r.put(FieldEnum.time.ordinal(), Long.valueOf(1_600_000_000_000L + i));
+      r.put(FieldEnum.qname.ordinal(), i % 2 == 0 ? "www.sidn.nl." : null);
+      r.put(FieldEnum.ipv.ordinal(), Integer.valueOf(4));
+      r.put(FieldEnum.prot.ordinal(), Integer.valueOf(17));
+      r.put(FieldEnum.dst.ordinal(), "192.168.1.1");
+      r.put(FieldEnum.dstp.ordinal(), Integer.valueOf(53));
+      r.put(FieldEnum.rd.ordinal(), Boolean.valueOf(i % 3 == 0));
+      r.put(FieldEnum.qdcount.ordinal(), Integer.valueOf(1));
+      r.put(FieldEnum.opcode.ordinal(), Integer.valueOf(0));
+      r.put(FieldEnum.rcode.ordinal(), Integer.valueOf(-1));
+      r.put(FieldEnum.labels.ordinal(), Integer.valueOf(3));
+      // the row builder uses a long for this int column
+      r.put(FieldEnum.proc_time.ordinal(), Long.valueOf(i));
+      rows.add(r);
+    }
+
+    List<GenericRecord> avro = writeAndRead(schema, rows, false);
+    List<GenericRecord> fast = writeAndRead(schema, rows, true);
+
+    assertEquals(rows.size(), fast.size());
+    assertEquals(avro, fast);
+    assertEquals(Integer.valueOf(99), fast.get(99).get("proc_time"));
+    assertNull(fast.get(1).get("qname"));
+  }
+
+  private List<GenericRecord> writeAndRead(Schema schema, List<GenericRecord> rows,
+      boolean fastWrite) throws IOException {
+    java.nio.file.Path partition = dir.resolve(fastWrite ? "fast" : "avro");
+
+    ParquetPartition<GenericRecord> p =
+        new ParquetPartition<>(partition.toString(), schema, 1024 * 1024, 20000, fastWrite);
+    rows.stream().forEach(p::write);
+    p.close();
+
+    List<java.nio.file.Path> files;
+    try (Stream<java.nio.file.Path> s = Files.list(partition)) {
+      // skip the hadoop checksum files
+      files = s.filter(f -> f.toString().endsWith(".parquet")).collect(Collectors.toList());
+    }
+    assertEquals(1, files.size());
+
+    List<GenericRecord> result = new ArrayList<>();
+    try (ParquetReader<GenericRecord> reader = AvroParquetReader
+        .<GenericRecord>builder(new Path(files.get(0).toString()))
+        .build()) {
+      GenericRecord r;
+      while ((r = reader.read()) != null) {
+        result.add(r);
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,131 @@
+package nl.sidnlabs.entrada.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import nl.sidnlabs.entrada.file.FileManagerFactory;
+import nl.sidnlabs.entrada.model.jpa.FileArchive;
+import nl.sidnlabs.entrada.model.jpa.FileArchiveRepository;
+
+public class ArchiveServiceTest {
+
+  private static final String SERVER = "ns1";
+
+  @TempDir
+  Path dir;
+
+  private FileArchiveRepository repository;
+
+  @BeforeEach
+  public void setup() {
+    repository = mock(FileArchiveRepository.class);
+    when(repository.findFilesByServer(SERVER)).thenReturn(Collections.singleton("old.pcap"));
+  }
+
+  private ArchiveService service(String mode, int batchSize) {
+    ArchiveService service = new ArchiveService(f -> FileManagerFactory.local(), repository, mode);
+    ReflectionTestUtils.setField(service, "batchSize", Integer.valueOf(batchSize));
+    return service;
+  }
+
+  private String pcap(String name) throws IOException {
+    return Files.write(dir.resolve(name), new byte[] {1, 2, 3}).toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<List<FileArchive>> saved(int times) {
+    ArgumentCaptor<List<FileArchive>> rows = ArgumentCaptor.forClass(List.class);
+    verify(repository, times(times)).saveAll(rows.capture());
+    return rows.getAllValues();
+  }
+
+  @Test
+  public void testProcessedFilesAreLoadedOnce() throws IOException {
+    ArchiveService service = service("none", 100);
+
+    assertTrue(service.exists("/input/old.pcap", SERVER));
+    assertFalse(service.exists("/input/new.pcap", SERVER));
+
+    // processed files are found without saving them to the database first
+    service.archive(pcap("new.pcap"), SERVER, new Date(), 10, 3);
+    assertTrue(service.exists("/input/new.pcap", SERVER));
+
+    verify(repository, times(1)).findFilesByServer(SERVER);
+    verify(repository, never()).saveAll(anyList());
+  }
+
+  @Test
+  public void testFilesAreSavedInBatches() throws IOException {
+    ArchiveService service = service("none", 3);
+
+    for (int i = 0; i < 7; i++) {
+      service.archive(pcap(i + ".pcap"), SERVER, new Date(), i, 3);
+    }
+    // a file that is found again is not saved again
+    service.archive(dir.resolve("6.pcap").toString(), SERVER, new Date(), 6, 3);
+    service.flush(SERVER);
+    service.flush(SERVER);
+
+    List<List<FileArchive>> batches = saved(3);
+    assertEquals(3, batches.get(0).size());
+    assertEquals(3, batches.get(1).size());
+    assertEquals(1, batches.get(2).size());
+    assertEquals("6.pcap", batches.get(2).get(0).getFile());
+  }
+
+  @Test
+  public void testFileIsDeletedAfterSave() throws IOException {
+    ArchiveService service = service("delete", 100);
+    String file = pcap("new.pcap");
+
+    service.archive(file, SERVER, new Date(), 10, 3);
+    assertTrue(Files.exists(dir.resolve("new.pcap")));
+
+    service.flush(SERVER);
+    assertEquals(1, saved(1).get(0).size());
+    assertFalse(Files.exists(dir.resolve("new.pcap")));
+  }
+
+  @Test
+  public void testFileIsKeptWhenSaveFails() throws IOException {
+    ArchiveService service = service("delete", 100);
+    String file = pcap("new.pcap");
+    doThrow(new DataAccessResourceFailureException("down"))
+        .when(repository)
+        .saveAll(anyList());
+
+    service.archive(file, SERVER, new Date(), 10, 3);
+    assertThrows(DataAccessResourceFailureException.class, () -> service.flush(SERVER));
+    assertTrue(Files.exists(dir.resolve("new.pcap")));
+
+    // the row is saved by the next flush, then the file is deleted
+    doReturn(Collections.emptyList()).when(repository).saveAll(anyList());
+    assertEquals(Collections.singletonList(file), service.flush(SERVER));
+    List<List<FileArchive>> batches = saved(2);
+    assertEquals(1, batches.get(1).size());
+    assertEquals("new.pcap", batches.get(1).get(0).getFile());
+    assertFalse(Files.exists(dir.resolve("new.pcap")));
+  }
+
+}
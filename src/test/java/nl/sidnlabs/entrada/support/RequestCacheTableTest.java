@@ -0,0 +1,125 @@
+package nl.sidnlabs.entrada.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static nl.sidnlabs.entrada.support.RequestCacheTable.NO_ENTRY;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class RequestCacheTableTest {
+
+  @Test
+  public void testPutFindRemove() {
+    RequestCacheTable table = new RequestCacheTable();
+
+    int e = table.put(1234, 53000, "192.168.1.1", "www.sidn.nl.", 10, null, null);
+    assertEquals(1, table.size());
+    assertEquals(e, table.find(1234, 53000, "192.168.1.1", "www.sidn.nl."));
+    assertEquals(1234, table.id(e));
+    assertEquals(53000, table.port(e));
+    assertEquals(10, table.time(e));
+
+    // every part of the key must match
+    assertEquals(NO_ENTRY, table.find(1235, 53000, "192.168.1.1", "www.sidn.nl."));
+    assertEquals(NO_ENTRY, table.find(1234, 53001, "192.168.1.1", "www.sidn.nl."));
+    assertEquals(NO_ENTRY, table.find(1234, 53000, "192.168.1.2", "www.sidn.nl."));
+    assertEquals(NO_ENTRY, table.find(1234, 53000, "192.168.1.1", null));
+
+    // same key replaces existing entry
+    assertEquals(e, table.put(1234, 53000, "192.168.1.1", "www.sidn.nl.", 20, null, null));
+    assertEquals(1, table.size());
+    assertEquals(20, table.time(e));
+
+    table.remove(e);
+    assertEquals(0, table.size());
+    assertEquals(NO_ENTRY, table.find(1234, 53000, "192.168.1.1", "www.sidn.nl."));
+  }
+
+  @Test
+  public void testNullQname() {
+    RequestCacheTable table = new RequestCacheTable();
+
+    int e1 = table.put(1, 1, "::1", null, 0, null, null);
+    int e2 = table.put(1, 1, "::1", "nl.", 0, null, null);
+    assertNotEquals(e1, e2);
+    assertEquals(e1, table.find(1, 1, "::1", null));
+    assertEquals(e2, table.find(1, 1, "::1", "nl."));
+  }
+
+  @Test
+  public void testRandomOperations() {
+    // compare with a hashmap, using a small table to force growing and many collisions
+    RequestCacheTable table = new RequestCacheTable(16, 2000);
+    Map<String, Long> expected = new HashMap<>();
+    Random r = new Random(42);
+
+    for (int i = 0; i < 100000; i++) {
+      int id = r.nextInt(64);
+      int port = r.nextInt(4);
+      String src = "10.0.0." + r.nextInt(8);
+      String qname = r.nextInt(10) == 0 ? null : "q" + r.nextInt(8) + ".nl.";
+      String key = id + "|" + port + "|" + src + "|" + qname;
+
+      int e = table.find(id, port, src, qname);
+      assertEquals(expected.containsKey(key), e != NO_ENTRY);
+
+      if (r.nextBoolean()) {
+        table.put(id, port, src, qname, i, null, null);
+        expected.put(key, Long.valueOf(i));
+      } else if (e != NO_ENTRY) {
+        assertEquals(expected.remove(key).longValue(), table.time(e));
+        table.remove(e);
+      }
+      assertEquals(expected.size(), table.size());
+    }
+
+    int used = 0;
+    for (int e = 0; e < table.limit(); e++) {
+      if (table.isUsed(e)) {
+        used++;
+        String key =
+            table.id(e) + "|" + table.port(e) + "|" + table.src(e) + "|" + table.qname(e);
+        assertTrue(expected.containsKey(key));
+      }
+    }
+    assertEquals(expected.size(), used);
+
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(0, table.limit());
+  }
+
+  @Test
+  public void testExpire() {
+    RequestCacheTable table = new RequestCacheTable(16, 2000);
+
+    long start = 1_600_000_000_000L;
+    for (int i = 0; i < 1000; i++) {
+      table.put(i, 53, "10.0.0.1", "nl.", start + i * 10, null, null);
+    }
+
+    // nothing expired yet
+    assertEquals(NO_ENTRY, table.nextExpired(start));
+
+    // expire the first 500 entries, an entry may expire 1 tick later
+    long max = start + 5000;
+    int expired = 0;
+    for (int e = table.nextExpired(max); e != NO_ENTRY; e = table.nextExpired(max)) {
+      assertTrue(table.time(e) < max);
+      table.remove(e);
+      expired++;
+    }
+    assertTrue(expired <= 500 && expired >= 490);
+
+    // a large jump in time expires everything
+    max = start + 1_000_000;
+    for (int e = table.nextExpired(max); e != NO_ENTRY; e = table.nextExpired(max)) {
+      table.remove(e);
+    }
+    assertEquals(0, table.size());
+  }
+
+}
@@ -0,0 +1,278 @@
+package nl.sidnlabs.entrada.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import nl.sidnlabs.pcap.PcapReader;
+import nl.sidnlabs.pcap.packet.Packet;
+
+/**
+ * Generator for pcap data with DNS over UDP/IPv4 query/response pairs, used as input for the
+ * benchmarks and tests. The responses are sent a few queries after the matching query, a small part
+ * of the queries does not get a response.
+ */
+public class SyntheticPcap {
+
+  public static final long START_MICROS = 1_600_000_000_000_000L;
+
+  private static final int LINKTYPE_ETHERNET = 1;
+  private static final int QUERY_INTERVAL_MICROS = 100;
+  // number of queries sent before the response for a query is sent
+  private static final int RESPONSE_DELAY = 8;
+
+  private static final byte[] SERVER = {(byte) 192, 0, 2, 53};
+  private static final String[] LABELS =
+      {"www", "mail", "ns1", "api", "cdn", "sidn", "example", "test", "shop", "login"};
+  private static final String[] TLDS = {"nl", "com", "org", "net"};
+
+  private final OutputStream out;
+  private final Random random;
+  private final int clients;
+  private long time;
+
+  private SyntheticPcap(OutputStream out, int clients, long seed, long start) {
+    this.out = out;
+    this.clients = clients;
+    this.random = new Random(seed);
+    this.time = start;
+  }
+
+  /**
+   * Create pcap data in memory
+   *
+   * @param pairs number of queries
+   * @param clients number of different client addresses
+   * @param seed seed for the random generator
+   * @return pcap data
+   */
+  public static byte[] create(int pairs, int clients, long seed) {
+    return create(pairs, clients, seed, START_MICROS);
+  }
+
+  /**
+   * Create pcap data in memory
+   *
+   * @param pairs number of queries
+   * @param clients number of different client addresses
+   * @param seed seed for the random generator
+   * @param start time of the first packet in microseconds since the epoch
+   * @return pcap data
+   */
+  public static byte[] create(int pairs, int clients, long seed, long start) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(pairs * 2 * 120);
+    try {
+      new SyntheticPcap(bos, clients, seed, start).write(pairs);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bos.toByteArray();
+  }
+
+  /**
+   * Write pcap data to output stream
+   *
+   * @param out stream to write to
+   * @param pairs number of queries
+   * @param clients number of different client addresses
+   * @param seed seed for the random generator
+   */
+  public static void write(OutputStream out, int pairs, int clients, long seed) {
+    try {
+      new SyntheticPcap(out, clients, seed, START_MICROS).write(pairs);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Decode the pcap data, the same way as the unit tests do.
+   *
+   * @param pcap pcap data
+   * @return decoded packets
+   */
+  public static List<Packet> read(byte[] pcap) {
+    return read(pcap, "synthetic.pcap");
+  }
+
+  /**
+   * Decode the pcap data, the same way as the unit tests do.
+   *
+   * @param pcap pcap data
+   * @param filename name of the file the packets are read from
+   * @return decoded packets
+   */
+  public static List<Packet> read(byte[] pcap, String filename) {
+    PcapReader reader = new PcapReader(new DataInputStream(new ByteArrayInputStream(pcap)), null,
+        true, filename, false);
+    try {
+      return reader.stream().filter(p -> p != Packet.NULL).collect(Collectors.toList());
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void write(int pairs) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(0xa1b2c3d4);
+    header.putShort((short) 2);
+    header.putShort((short) 4);
+    header.putInt(0);
+    header.putInt(0);
+    header.putInt(65535);
+    header.putInt(LINKTYPE_ETHERNET);
+    out.write(header.array());
+
+    Deque<Query> pending = new ArrayDeque<>();
+    for (int i = 0; i < pairs; i++) {
+      Query q = query();
+      writePacket(q.client, SERVER, q.port, 53, dns(q, false));
+      // about 1% of the queries do not get a response
+      if (random.nextInt(100) > 0) {
+        pending.add(q);
+      }
+
+      if (pending.size() > RESPONSE_DELAY) {
+        Query r = pending.poll();
+        writePacket(SERVER, r.client, 53, r.port, dns(r, true));
+      }
+      time += QUERY_INTERVAL_MICROS;
+    }
+
+    while (!pending.isEmpty()) {
+      Query r = pending.poll();
+      writePacket(SERVER, r.client, 53, r.port, dns(r, true));
+      time += QUERY_INTERVAL_MICROS;
+    }
+    out.flush();
+  }
+
+  private Query query() {
+    Query q = new Query();
+    int c = random.nextInt(clients);
+    // use the benchmark range 198.18.0.0/15 for client addresses
+    q.client = new byte[] {(byte) 198, (byte) (18 + ((c >> 16) & 1)), (byte) (c >> 8), (byte) c};
+    q.port = 1024 + random.nextInt(64511);
+    q.id = random.nextInt(65536);
+    q.qname = LABELS[random.nextInt(LABELS.length)] + "." + LABELS[random.nextInt(LABELS.length)]
+        + random.nextInt(1000) + "." + TLDS[random.nextInt(TLDS.length)];
+    q.qtype = random.nextInt(4) == 0 ? 28 : 1;
+    q.rcode = random.nextInt(10) == 0 ? 3 : 0;
+    return q;
+  }
+
+  private byte[] dns(Query q, boolean response) {
+    ByteBuffer b = ByteBuffer.allocate(512);
+    b.putShort((short) q.id);
+    // query with RD set, response with QR, AA, RD and rcode
+    b.putShort((short) (response ? 0x8500 | q.rcode : 0x0100));
+    b.putShort((short) 1);
+    b.putShort((short) (response && q.rcode == 0 ? 1 : 0));
+    b.putShort((short) 0);
+    b.putShort((short) 1);
+
+    // question
+    for (String label : q.qname.split("\\.")) {
+      byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+      b.put((byte) bytes.length);
+      b.put(bytes);
+    }
+    b.put((byte) 0);
+    b.putShort((short) q.qtype);
+    b.putShort((short) 1);
+
+    if (response && q.rcode == 0) {
+      // answer, using pointer to qname in question
+      b.putShort((short) 0xc00c);
+      b.putShort((short) q.qtype);
+      b.putShort((short) 1);
+      b.putInt(3600);
+      int len = q.qtype == 1 ? 4 : 16;
+      b.putShort((short) len);
+      for (int i = 0; i < len; i++) {
+        b.put((byte) random.nextInt(256));
+      }
+    }
+
+    // EDNS0 OPT record with DO bit
+    b.put((byte) 0);
+    b.putShort((short) 41);
+    b.putShort((short) (response ? 1232 : 4096));
+    b.putInt(0x00008000);
+    b.putShort((short) 0);
+
+    byte[] dns = new byte[b.position()];
+    b.flip();
+    b.get(dns);
+    return dns;
+  }
+
+  private void writePacket(byte[] src, byte[] dst, int srcPort, int dstPort, byte[] payload)
+      throws IOException {
+    int ipLength = 20 + 8 + payload.length;
+    int frameLength = 14 + ipLength;
+
+    ByteBuffer record = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+    record.putInt((int) (time / 1_000_000));
+    record.putInt((int) (time % 1_000_000));
+    record.putInt(frameLength);
+    record.putInt(frameLength);
+    out.write(record.array());
+
+    ByteBuffer b = ByteBuffer.allocate(frameLength);
+    // ethernet
+    b.put(new byte[] {0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 6});
+    b.putShort((short) 0x0800);
+    // ipv4, with DF flag set
+    int ipStart = b.position();
+    b.put((byte) 0x45);
+    b.put((byte) 0);
+    b.putShort((short) ipLength);
+    b.putShort((short) random.nextInt(65536));
+    b.putShort((short) 0x4000);
+    b.put((byte) 64);
+    b.put((byte) 17);
+    b.putShort((short) 0);
+    b.put(src);
+    b.put(dst);
+    b.putShort(ipStart + 10, checksum(b.array(), ipStart, 20));
+    // udp, checksum is optional for ipv4
+    b.putShort((short) srcPort);
+    b.putShort((short) dstPort);
+    b.putShort((short) (8 + payload.length));
+    b.putShort((short) 0);
+    b.put(payload);
+    out.write(b.array());
+  }
+
+  private static short checksum(byte[] data, int offset, int length) {
+    int sum = 0;
+    for (int i = offset; i < offset + length; i += 2) {
+      sum += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+    }
+    while ((sum >> 16) != 0) {
+      sum = (sum & 0xffff) + (sum >> 16);
+    }
+    return (short) ~sum;
+  }
+
+  private static class Query {
+    private byte[] client;
+    private int port;
+    private int id;
+    private String qname;
+    private int qtype;
+    private int rcode;
+  }
+
+}
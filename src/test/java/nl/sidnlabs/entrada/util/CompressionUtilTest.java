@@ -0,0 +1,43 @@
+package nl.sidnlabs.entrada.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CompressionUtilTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void testZstdFilename() {
+    assertEquals("dns.pcap.zst", CompressionUtil.zstdFilename("dns.pcap"));
+    assertEquals("dns.pcap.zst", CompressionUtil.zstdFilename("dns.pcap.gz"));
+    assertEquals("dns.pcap.zst", CompressionUtil.zstdFilename("dns.pcap.XZ"));
+    assertEquals("dns.pcap.zst", CompressionUtil.zstdFilename("dns.pcap.lz4"));
+  }
+
+  @Test
+  public void testRecompressZstd() throws IOException {
+    byte[] data = new byte[100000];
+    new Random(42).nextBytes(data);
+    Path src = dir.resolve("dns.pcap");
+    Files.write(src, data);
+    String dst = dir.resolve(CompressionUtil.zstdFilename("dns.pcap")).toString();
+
+    CompressionUtil.zstd(src.toString(), dst, 3, 64 * 1024);
+
+    try (InputStream in = CompressionUtil
+        .getDecompressorStreamWrapper(Files.newInputStream(Path.of(dst)), 64 * 1024, dst)) {
+      assertArrayEquals(data, IOUtils.toByteArray(in));
+    }
+  }
+
+}
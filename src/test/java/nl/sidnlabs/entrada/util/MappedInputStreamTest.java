@@ -0,0 +1,85 @@
+package nl.sidnlabs.entrada.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedInputStreamTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void testReadAcrossWindows() throws IOException {
+    byte[] data = new byte[10000];
+    new Random(42).nextBytes(data);
+    Path file = dir.resolve("test.pcap");
+    Files.write(file, data);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new MappedInputStream(file, 1024)) {
+      out.write(in.read());
+      byte[] buf = new byte[700];
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        out.write(buf, 0, n);
+      }
+      assertEquals(-1, in.read());
+    }
+
+    assertArrayEquals(data, out.toByteArray());
+  }
+
+  @Test
+  public void testSkip() throws IOException {
+    byte[] data = new byte[5000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    Path file = dir.resolve("test.pcap");
+    Files.write(file, data);
+
+    try (InputStream in = new MappedInputStream(file, 1024)) {
+      assertEquals(100, in.skip(100));
+      assertEquals(100, in.read());
+      // skip to the next window
+      assertEquals(2000, in.skip(2000));
+      assertEquals(2101 & 0xff, in.read());
+      assertEquals(2898, in.available());
+      assertEquals(2898, in.skip(10000));
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    Path file = dir.resolve("empty.pcap");
+    Files.write(file, new byte[0]);
+
+    try (InputStream in = new MappedInputStream(file)) {
+      assertEquals(-1, in.read());
+      assertEquals(-1, in.read(new byte[10], 0, 10));
+    }
+  }
+
+  @Test
+  public void testClosed() throws IOException {
+    Path file = dir.resolve("test.pcap");
+    Files.write(file, new byte[100]);
+
+    InputStream in = new MappedInputStream(file);
+    in.close();
+    assertThrows(IOException.class, in::read);
+    assertThrows(IOException.class, () -> in.skip(10));
+    assertThrows(IOException.class, in::available);
+  }
+
+}
@@ -0,0 +1,68 @@
+package nl.sidnlabs.entrada.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+public class ParallelXZInputStreamTest {
+
+  @TempDir
+  Path dir;
+
+  private static byte[] data(int size) {
+    byte[] data = new byte[size];
+    new Random(42).nextBytes(data);
+    return data;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[1000];
+    int n;
+    while ((n = in.read(buf)) != -1) {
+      out.write(buf, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testParallelXZ() throws IOException {
+    byte[] data = data(1000000);
+    File file = dir.resolve("test.pcap.xz").toFile();
+    try (XZOutputStream out =
+        new XZOutputStream(Files.newOutputStream(file.toPath()), new LZMA2Options())) {
+      // create 4 blocks
+      for (int i = 0; i < 4; i++) {
+        out.write(data, i * 250000, 250000);
+        out.endBlock();
+      }
+    }
+
+    try (InputStream in = ParallelXZInputStream.open(file, 2)) {
+      assertArrayEquals(data, readAll(in));
+    }
+  }
+
+  @Test
+  public void testSingleBlockXZ() throws IOException {
+    File file = dir.resolve("test.pcap.xz").toFile();
+    try (OutputStream out =
+        new XZOutputStream(Files.newOutputStream(file.toPath()), new LZMA2Options())) {
+      out.write(data(1000));
+    }
+
+    assertNull(ParallelXZInputStream.open(file, 2));
+  }
+
+}
@@ -0,0 +1,55 @@
+package nl.sidnlabs.entrada.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class ReadAheadInputStreamTest {
+
+  private static byte[] data(int size) {
+    byte[] data = new byte[size];
+    new Random(42).nextBytes(data);
+    return data;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[1000];
+    int n;
+    while ((n = in.read(buf)) != -1) {
+      out.write(buf, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testReadAhead() throws IOException {
+    byte[] data = data(3 * ReadAheadInputStream.CHUNK_SIZE + 123);
+
+    try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), "test", 2)) {
+      assertArrayEquals(data, readAll(in));
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void testReadError() throws IOException {
+    InputStream failing = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("corrupt");
+      }
+    };
+
+    try (InputStream in = new ReadAheadInputStream(failing, "test", 2)) {
+      assertThrows(IOException.class, () -> in.read());
+    }
+  }
+
+}